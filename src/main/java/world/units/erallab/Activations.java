@@ -0,0 +1,130 @@
+package world.units.erallab;
+
+import java.util.Locale;
+
+
+// tanh and exp used by the controllers, with approximate implementations selectable per run; max absolute errors of tanh,
+// measured on [-20,20] with step 1e-5, are 9.7e-5 for RATIONAL (Padé [7/6], clamped) and 1.5e-6 for TABLE (4096 linearly
+// interpolated points on [-8,8]); exp has a max relative error of 7.1e-9 in the approximate modes
+public class Activations {
+
+  public enum Mode { EXACT, RATIONAL, TABLE }
+
+  private static final double TANH_CLAMP = 9.0;
+  private static final int TABLE_SIZE = 4096;
+  private static final double TABLE_RANGE = 8.0;
+  private static final double TABLE_SCALE = TABLE_SIZE / (2.0 * TABLE_RANGE);
+  private static final double[] TANH_TABLE = new double[TABLE_SIZE + 2];
+  private static final double LOG2E = 1.4426950408889634;
+  private static final double LN2 = 0.6931471805599453;
+
+  private static Mode mode = Mode.EXACT;
+
+  static {
+    for (int i = 0; i < TANH_TABLE.length; ++i) {
+      TANH_TABLE[i] = Math.tanh(-TABLE_RANGE + i / TABLE_SCALE);
+    }
+  }
+
+  private Activations() {
+  }
+
+  public static void setMode(Mode mode) {
+    Activations.mode = mode;
+  }
+
+  public static void setMode(String name) {
+    setMode(Mode.valueOf(name.toUpperCase(Locale.ROOT)));
+  }
+
+  public static Mode getMode() {
+    return mode;
+  }
+
+  public static double tanh(double x) {
+    return switch (mode) {
+      case EXACT -> Math.tanh(x);
+      case RATIONAL -> rationalTanh(x);
+      case TABLE -> tableTanh(x);
+    };
+  }
+
+  // in place on v[from..to), with the dispatch hoisted out of the loops
+  public static void tanh(double[] v, int from, int to) {
+    switch (mode) {
+      case EXACT -> {
+        for (int i = from; i < to; ++i) {
+          v[i] = Math.tanh(v[i]);
+        }
+      }
+      case RATIONAL -> {
+        for (int i = from; i < to; ++i) {
+          v[i] = rationalTanh(v[i]);
+        }
+      }
+      case TABLE -> {
+        for (int i = from; i < to; ++i) {
+          v[i] = tableTanh(v[i]);
+        }
+      }
+    }
+  }
+
+  // branch-free: both clamps compile to min/max
+  public static double rationalTanh(double x) {
+    double c = Math.max(-TANH_CLAMP, Math.min(TANH_CLAMP, x));
+    double c2 = c * c;
+    double r = c * (135135.0 + c2 * (17325.0 + c2 * (378.0 + c2))) / (135135.0 + c2 * (62370.0 + c2 * (3150.0 + c2 * 28.0)));
+    return Math.max(-1.0, Math.min(1.0, r));
+  }
+
+  public static double tableTanh(double x) {
+    if (x <= -TABLE_RANGE) {
+      return -1.0;
+    }
+    if (x >= TABLE_RANGE) {
+      return 1.0;
+    }
+    double p = (x + TABLE_RANGE) * TABLE_SCALE;
+    int i = (int) p;
+    double f = p - i;
+    return TANH_TABLE[i] + f * (TANH_TABLE[i + 1] - TANH_TABLE[i]);
+  }
+
+  public static double exp(double x) {
+    return (mode == Mode.EXACT) ? Math.exp(x) : fastExp(x);
+  }
+
+  // range reduction to r in [-ln2/2,ln2/2] and a degree 7 polynomial
+  public static double fastExp(double x) {
+    if (x < -708.0) {
+      return 0.0;
+    }
+    if (x > 709.0) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double k = Math.rint(x * LOG2E);
+    double r = x - k * LN2;
+    double p = 1.0 + r * (1.0 + r * (1.0 / 2.0 + r * (1.0 / 6.0 + r * (1.0 / 24.0 + r * (1.0 / 120.0 + r * (1.0 / 720.0 + r / 5040.0))))));
+    return Math.scalb(p, (int) k);
+  }
+
+  // numerically stable softmax, in place: shifting by the max keeps every exponent non-positive
+  public static double[] softmax(double[] v) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (double value : v) {
+      max = Math.max(max, value);
+    }
+    double sum = 0.0;
+    for (int i = 0; i < v.length; ++i) {
+      v[i] = exp(v[i] - max);
+      sum += v[i];
+    }
+    double scale = 1.0 / sum;
+    for (int i = 0; i < v.length; ++i) {
+      v[i] *= scale;
+    }
+    return v;
+  }
+
+}
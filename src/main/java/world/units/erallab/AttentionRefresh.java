@@ -0,0 +1,81 @@
+package world.units.erallab;
+
+import java.io.Serializable;
+
+
+// refresh policy of the attentions: attention is recomputed every 'steps' invocations or, with a positive drift threshold, as
+// soon as the readings moved away from the ones of the last refresh by more than the threshold (max norm); reuses are counted
+// as hits; reduced precision attentions copy the settings of their source, so that they differ only in arithmetic
+class AttentionRefresh implements Serializable {
+
+  private int steps;
+  private double driftThreshold;
+  private final double[] refreshInputs;
+  private boolean refreshed;
+  private int age;
+  private long hits;
+  private long misses;
+
+  AttentionRefresh(int din) {
+    this.steps = 1;
+    this.driftThreshold = 0.0;
+    this.refreshInputs = new double[din];
+  }
+
+  // same settings as the given policy, with a fresh state
+  AttentionRefresh(AttentionRefresh other) {
+    this(other.refreshInputs.length);
+    this.steps = other.steps;
+    this.driftThreshold = other.driftThreshold;
+  }
+
+  // whether attention has to be recomputed on the readings in inputs[offset..offset + din)
+  boolean isDue(double[] inputs, int offset) {
+    ++this.age;
+    boolean due;
+    if (!this.refreshed) {
+      due = true;
+    }
+    else if (this.driftThreshold > 0.0) {
+      due = false;
+      for (int i = 0; i < this.refreshInputs.length; ++i) {
+        if (Math.abs(inputs[offset + i] - this.refreshInputs[i]) > this.driftThreshold) {
+          due = true;
+          break;
+        }
+      }
+    }
+    else {
+      due = this.age >= this.steps;
+    }
+    if (!due) {
+      ++this.hits;
+      return false;
+    }
+    ++this.misses;
+    this.age = 0;
+    this.refreshed = true;
+    System.arraycopy(inputs, offset, this.refreshInputs, 0, this.refreshInputs.length);
+    return true;
+  }
+
+  void reset() {
+    this.refreshed = false;
+    this.age = 0;
+    this.hits = 0;
+    this.misses = 0;
+  }
+
+  int getSteps() { return this.steps; }
+
+  void setSteps(int steps) { this.steps = steps; }
+
+  double getDriftThreshold() { return this.driftThreshold; }
+
+  void setDriftThreshold(double driftThreshold) { this.driftThreshold = driftThreshold; }
+
+  long getHits() { return this.hits; }
+
+  long getMisses() { return this.misses; }
+
+}
@@ -16,10 +16,6 @@
 
 package world.units.erallab;
 
-import it.units.erallab.hmsrobots.core.controllers.AbstractController;
-import it.units.erallab.hmsrobots.core.controllers.StepController;
-import it.units.erallab.hmsrobots.core.objects.Robot;
-import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
 import it.units.erallab.hmsrobots.util.Grid;
 import it.units.erallab.hmsrobots.util.SerializationUtils;
@@ -45,7 +41,7 @@ public class AuxUtils {
     private AuxUtils() {
     }
 
-    public static List<NamedFunction<Event<?, ? extends Robot<?>, ? extends Outcome>, ?>> basicFunctions() {
+    public static List<NamedFunction<Event<?, ? extends LazyRobot, ? extends Outcome>, ?>> basicFunctions() {
         return List.of(
                 iterations(),
                 births(),
@@ -54,43 +50,39 @@ public class AuxUtils {
         );
     }
 
-    public static List<NamedFunction<Individual<?, ? extends Robot<?>, ? extends Outcome>, ?>> serializationFunction(boolean flag) {
+    public static List<NamedFunction<Individual<?, ? extends LazyRobot, ? extends Outcome>, ?>> serializationFunction(boolean flag) {
         if (!flag) {
             return List.of();
         }
-        return List.of(f("serialized", r -> SerializationUtils.serialize(r, SerializationUtils.Mode.GZIPPED_JSON)).of(solution()));
+        // the robot is built only for being serialized
+        return List.of(f("serialized", (LazyRobot r) -> SerializationUtils.serialize(r.get(), SerializationUtils.Mode.GZIPPED_JSON)).of(solution()));
     }
 
-    public static List<NamedFunction<Individual<?, ? extends Robot<?>, ? extends Outcome>, ?>> individualFunctions(Function<Outcome, Double> fitnessFunction) {
-        NamedFunction<Individual<?, ? extends Robot<?>, ? extends Outcome>, ?> size = size().of(genotype());
+    public static List<NamedFunction<Individual<?, ? extends LazyRobot, ? extends Outcome>, ?>> individualFunctions(Function<Outcome, Double> fitnessFunction) {
+        NamedFunction<Individual<?, ? extends LazyRobot, ? extends Outcome>, ?> size = size().of(genotype());
         return List.of(
                 f("w", "%2d", (Function<Grid<?>, Number>) Grid::getW)
-                        .of(f("shape", (Function<Robot<?>, Grid<?>>) Robot::getVoxels))
+                        .of(f("shape", (Function<LazyRobot, Grid<?>>) LazyRobot::getBody))
                         .of(solution()),
                 f("h", "%2d", (Function<Grid<?>, Number>) Grid::getH)
-                        .of(f("shape", (Function<Robot<?>, Grid<?>>) Robot::getVoxels))
+                        .of(f("shape", (Function<LazyRobot, Grid<?>>) LazyRobot::getBody))
                         .of(solution()),
                 f("num.voxel", "%2d", (Function<Grid<?>, Number>) g -> g.count(Objects::nonNull))
-                        .of(f("shape", (Function<Robot<?>, Grid<?>>) Robot::getVoxels))
+                        .of(f("shape", (Function<LazyRobot, Grid<?>>) LazyRobot::getBody))
                         .of(solution()),
                 size.reformat("%5d"),
                 genotypeBirthIteration(),
                 f("fitness", "%5.1f", fitnessFunction).of(fitness()),
-                f("uniformity", "%5.1f", s -> {
-                  AbstractController<? extends SensingVoxel> c = ((StepController) ((Robot<?>) s).getController()).getInnerController();
-                  if (c instanceof PartiallyDistributedSensing) {
-                    return ((PartiallyDistributedSensing) c).getUniformity();
-                  }
-                  else {
-                    return -1.0;
-                  }
-                }).of(solution())
+                f("uniformity", "%5.1f", (Function<LazyRobot, Number>) LazyRobot::getUniformity).of(solution()),
+                f("attention.hit.rate", "%4.2f", (Function<LazyRobot, Number>) LazyRobot::getAttentionHitRate).of(solution()),
+                f("terrains", "%2d", (Outcome o) -> (o instanceof RacedOutcome) ? ((RacedOutcome) o).getOutcomes().size() : 1).of(fitness()),
+                f("early.stop", "%s", (Outcome o) -> (o instanceof EarlyStoppedOutcome) ? ((EarlyStoppedOutcome) o).getReason() : "none").of(fitness())
         );
     }
 
-    public static List<NamedFunction<Event<?, ? extends Robot<?>, ? extends Outcome>, ?>> populationFunctions(Function<Outcome, Double> fitnessFunction) {
-        NamedFunction<Event<?, ? extends Robot<?>, ? extends Outcome>, ?> min = min(Double::compare).of(each(f("fitness", fitnessFunction).of(fitness()))).of(all());
-        NamedFunction<Event<?, ? extends Robot<?>, ? extends Outcome>, ?> median = median(Double::compare).of(each(f("fitness", fitnessFunction).of(fitness()))).of(all());
+    public static List<NamedFunction<Event<?, ? extends LazyRobot, ? extends Outcome>, ?>> populationFunctions(Function<Outcome, Double> fitnessFunction) {
+        NamedFunction<Event<?, ? extends LazyRobot, ? extends Outcome>, ?> min = min(Double::compare).of(each(f("fitness", fitnessFunction).of(fitness()))).of(all());
+        NamedFunction<Event<?, ? extends LazyRobot, ? extends Outcome>, ?> median = median(Double::compare).of(each(f("fitness", fitnessFunction).of(fitness()))).of(all());
         return List.of(
                 size().of(all()),
                 size().of(firsts()),
@@ -99,7 +91,8 @@ public class AuxUtils {
                 uniqueness().of(each(solution())).of(all()),
                 uniqueness().of(each(fitness())).of(all()),
                 min.reformat("%+4.1f"),
-                median.reformat("%5.1f")
+                median.reformat("%5.1f"),
+                f("early.stopped", "%3d", (Collection<?> os) -> os.stream().filter(o -> o instanceof EarlyStoppedOutcome).count()).of(each(fitness())).of(all())
         );
     }
 
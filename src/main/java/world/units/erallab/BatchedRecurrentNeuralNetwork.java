@@ -0,0 +1,125 @@
+package world.units.erallab;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.units.erallab.hmsrobots.core.controllers.Resettable;
+import it.units.erallab.hmsrobots.util.Parametrized;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.stream.DoubleStream;
+
+
+// stateful RecurrentNeuralNetwork evaluated on many voxels at once: one weight block, laid out as in RecurrentNeuralNetwork,
+// and one hidden state row per voxel, all rows being updated in a single call per control step
+public class BatchedRecurrentNeuralNetwork implements Serializable, Parametrized, Resettable {
+
+  @JsonProperty
+  private final int nOfRows;
+  @JsonProperty
+  private final double[][] inputWeights;
+  @JsonProperty
+  private final double[][] hiddenWeights;
+  @JsonProperty
+  private final double[][] outputWeights;
+  // hidden state of row v in hiddenStates[v * nOfHiddenUnits..(v + 1) * nOfHiddenUnits)
+  private final double[] hiddenStates;
+  private final double[] lastOutputs;
+  private double lastT;
+
+  @JsonCreator
+  public BatchedRecurrentNeuralNetwork(@JsonProperty("nOfRows") int nOfRows,
+                                       @JsonProperty("inputWeights") double[][] inputWeights,
+                                       @JsonProperty("hiddenWeights") double[][] hiddenWeights,
+                                       @JsonProperty("outputWeights") double[][] outputWeights) {
+    this.nOfRows = nOfRows;
+    this.inputWeights = inputWeights;
+    this.hiddenWeights = hiddenWeights;
+    this.outputWeights = outputWeights;
+    this.hiddenStates = new double[nOfRows * hiddenWeights.length];
+    this.lastOutputs = new double[nOfRows * outputWeights.length];
+    this.reset();
+  }
+
+  public BatchedRecurrentNeuralNetwork(int nOfRows, int nOfInputs, int nOfHiddenUnits, int nOfOutputs) {
+    this(nOfRows, new double[nOfHiddenUnits][nOfInputs + 1], new double[nOfHiddenUnits][nOfHiddenUnits], new double[nOfOutputs][nOfHiddenUnits + 1]);
+  }
+
+  public static int countWeights(int nOfInputs, int nHiddenUnits, int nOfOutputs) {
+    return RecurrentNeuralNetwork.countWeights(nOfInputs, nHiddenUnits, nOfOutputs);
+  }
+
+  // same arithmetic as RecurrentNeuralNetwork in stateful mode with identity input gate and tanh hidden and output activations;
+  // row v reads inputs[v] and writes outputs[v * nOfOutputs..(v + 1) * nOfOutputs)
+  public void apply(double t, double[][] inputs, double[] outputs) {
+    if (t - this.lastT < 0.33) {
+      System.arraycopy(this.lastOutputs, 0, outputs, 0, this.lastOutputs.length);
+      return;
+    }
+    this.lastT = t;
+    int nOfHiddenUnits = this.hiddenWeights.length;
+    int nOfOutputs = this.outputWeights.length;
+    for (int v = 0; v < this.nOfRows; ++v) {
+      double[] in = inputs[v];
+      int h = v * nOfHiddenUnits;
+      for (int j = 0; j < nOfHiddenUnits; ++j) {
+        double bias = this.inputWeights[j][0];
+        for (int k = 1; k < this.inputWeights[j].length; ++k) {
+          bias = bias + in[k - 1] * this.inputWeights[j][k];
+        }
+        double sum = bias;
+        for (int k = 0; k < this.hiddenWeights[j].length; ++k) {
+          sum = sum + this.hiddenStates[h + j] * this.hiddenWeights[j][k];
+        }
+        this.hiddenStates[h + j] = Activations.tanh(sum);
+      }
+      // the output gate of RecurrentNeuralNetwork is a library perceptron, always using the exact tanh
+      for (int o = 0; o < nOfOutputs; ++o) {
+        double sum = this.outputWeights[o][0];
+        for (int k = 1; k < this.outputWeights[o].length; ++k) {
+          sum = sum + Math.tanh(this.hiddenStates[h + k - 1]) * this.outputWeights[o][k];
+        }
+        this.lastOutputs[v * nOfOutputs + o] = Math.tanh(sum);
+      }
+    }
+    System.arraycopy(this.lastOutputs, 0, outputs, 0, this.lastOutputs.length);
+  }
+
+  public int getInputDimension() {
+    return this.inputWeights[0].length - 1;
+  }
+
+  public int getOutputDimension() {
+    return this.outputWeights.length;
+  }
+
+  public double[] getHiddenStates() {
+    return this.hiddenStates;
+  }
+
+  @Override
+  public void reset() {
+    Arrays.fill(this.hiddenStates, 0.0);
+    Arrays.fill(this.lastOutputs, 0.0);
+    this.lastT = 0.0;
+  }
+
+  @Override
+  public double[] getParams() {
+    return DoubleStream.concat(Arrays.stream(this.inputWeights).flatMapToDouble(DoubleStream::of), DoubleStream.concat(Arrays.stream(this.hiddenWeights).flatMapToDouble(DoubleStream::of), Arrays.stream(this.outputWeights).flatMapToDouble(DoubleStream::of))).toArray();
+  }
+
+  @Override
+  public void setParams(double[] params) { this.setParams(ParameterView.of(params)); }
+
+  public void setParams(ParameterView params) {
+    int p = 0;
+    for (double[][] weights : new double[][][]{this.inputWeights, this.hiddenWeights, this.outputWeights}) {
+      for (double[] row : weights) {
+        params.copyTo(p, row, 0, row.length);
+        p = p + row.length;
+      }
+    }
+  }
+
+}
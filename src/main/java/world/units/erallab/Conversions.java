@@ -0,0 +1,70 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.controllers.Controller;
+import it.units.erallab.hmsrobots.core.controllers.DistributedSensing;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.StepController;
+import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.util.Grid;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.UnaryOperator;
+
+
+// in place replacement of the functions of a controller with their reduced precision counterparts
+class Conversions {
+
+  private Conversions() {
+  }
+
+  // functions sharing their weights, being the same instance, perceptrons over the same weight arrays or attentions built with
+  // shareWeights, keep sharing them once converted
+  static void convert(Grid<TimedRealFunction> functions, UnaryOperator<TimedRealFunction> convert, UnaryOperator<TimedRealFunction> share) {
+    Map<TimedRealFunction, TimedRealFunction> converted = new IdentityHashMap<>();
+    Map<double[][][], TimedRealFunction> perceptrons = new IdentityHashMap<>();
+    List<SelfAttention> attentions = new ArrayList<>();
+    for (Grid.Entry<TimedRealFunction> entry : functions) {
+      TimedRealFunction function = entry.getValue();
+      if (function == null) {
+        continue;
+      }
+      TimedRealFunction target = converted.get(function);
+      if (target == null && function instanceof SelfAttention) {
+        SelfAttention attention = (SelfAttention) function;
+        target = attentions.stream().filter(attention::sharesWeightsWith).findFirst().map(a -> share.apply(converted.get(a))).orElse(null);
+        attentions.add(attention);
+      }
+      if (target == null && function instanceof MultiLayerPerceptron) {
+        TimedRealFunction sharing = perceptrons.get(((MultiLayerPerceptron) function).getWeights());
+        target = (sharing == null) ? null : share.apply(sharing);
+      }
+      if (target == null) {
+        target = convert.apply(function);
+      }
+      converted.putIfAbsent(function, target);
+      if (function instanceof MultiLayerPerceptron) {
+        perceptrons.putIfAbsent(((MultiLayerPerceptron) function).getWeights(), target);
+      }
+      functions.set(entry.getX(), entry.getY(), target);
+    }
+  }
+
+  static Grid<TimedRealFunction> getFunctions(Robot<?> robot) {
+    Controller<?> controller = robot.getController();
+    if (controller instanceof StepController) {
+      controller = ((StepController<?>) controller).getInnerController();
+    }
+    if (controller instanceof PartiallyDistributedSensing) {
+      return ((PartiallyDistributedSensing) controller).getFunctions();
+    }
+    if (controller instanceof DistributedSensing) {
+      return ((DistributedSensing) controller).getFunctions();
+    }
+    throw new IllegalArgumentException(String.format("Cannot convert controller of type %s", controller.getClass().getSimpleName()));
+  }
+
+}
@@ -0,0 +1,63 @@
+package world.units.erallab;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+// fixed-length genotype backed by a primitive array, exposed as a List<Double> view so that JGEA can handle it
+public class DoubleGenotype extends AbstractList<Double> implements RandomAccess, Serializable {
+
+  private final double[] values;
+
+  public DoubleGenotype(double[] values) {
+    this.values = values;
+  }
+
+  public DoubleGenotype(int size) {
+    this(new double[size]);
+  }
+
+  public static DoubleGenotype of(List<Double> genotype) {
+    if (genotype instanceof DoubleGenotype) {
+      return (DoubleGenotype) genotype;
+    }
+    double[] values = new double[genotype.size()];
+    int i = 0;
+    for (double d : genotype) {
+      values[i++] = d;
+    }
+    return new DoubleGenotype(values);
+  }
+
+  public double[] values() { return this.values; }
+
+  public double getDouble(int index) { return this.values[index]; }
+
+  @Override
+  public Double get(int index) { return this.values[index]; }
+
+  @Override
+  public Double set(int index, Double element) {
+    double old = this.values[index];
+    this.values[index] = element;
+    return old;
+  }
+
+  @Override
+  public int size() { return this.values.length; }
+
+  // same values as the List contract prescribes, without boxing
+  @Override
+  public int hashCode() { return Arrays.hashCode(this.values); }
+
+  @Override
+  public boolean equals(Object o) {
+    if (o instanceof DoubleGenotype) {
+      return Arrays.equals(this.values, ((DoubleGenotype) o).values);
+    }
+    return super.equals(o);
+  }
+
+}
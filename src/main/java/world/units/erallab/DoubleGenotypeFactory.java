@@ -0,0 +1,30 @@
+package world.units.erallab;
+
+import it.units.malelab.jgea.core.IndependentFactory;
+
+import java.util.List;
+import java.util.Random;
+
+
+public class DoubleGenotypeFactory implements IndependentFactory<List<Double>> {
+
+  private final int length;
+  private final double min;
+  private final double max;
+
+  public DoubleGenotypeFactory(int length, double min, double max) {
+    this.length = length;
+    this.min = min;
+    this.max = max;
+  }
+
+  @Override
+  public List<Double> build(Random random) {
+    double[] values = new double[this.length];
+    for (int i = 0; i < this.length; ++i) {
+      values[i] = this.min + (this.max - this.min) * random.nextDouble();
+    }
+    return new DoubleGenotype(values);
+  }
+
+}
@@ -0,0 +1,138 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.DoubleSupplier;
+import java.util.function.Supplier;
+
+
+// decides, at every control step, whether an episode is worth simulating further, based on the trajectory of the robot
+// center so far; policies keep no per-episode state, hence the same instances can be used by concurrent episodes
+public interface EarlyStopPolicy {
+
+  // reason for stopping at the last time of the trajectory, or null for going on
+  String check(NavigableMap<Double, Point2> trajectory);
+
+  // the robot moved less than minDistance along x in the last window seconds
+  static EarlyStopPolicy stagnation(double window, double minDistance) {
+    return trajectory -> {
+      double t = trajectory.lastKey();
+      if (t - trajectory.firstKey() < window) {
+        return null;
+      }
+      double distance = Math.abs(trajectory.lastEntry().getValue().x - trajectory.floorEntry(t - window).getValue().x);
+      return (distance < minDistance) ? "stagnation" : null;
+    };
+  }
+
+  // after checkpoint seconds, the velocity so far is below ratio times the reference one, e.g., the median of the population
+  static EarlyStopPolicy slow(double checkpoint, double ratio, DoubleSupplier reference) {
+    return trajectory -> {
+      double time = trajectory.lastKey() - trajectory.firstKey();
+      double threshold = ratio * reference.getAsDouble();
+      if (time < checkpoint || !(threshold > 0)) {
+        return null;
+      }
+      double velocity = (trajectory.lastEntry().getValue().x - trajectory.firstEntry().getValue().x) / time;
+      return (velocity < threshold) ? "slow" : null;
+    };
+  }
+
+  // the simulation diverged: the center is not finite or moves faster than maxSpeed
+  static EarlyStopPolicy blowUp(double maxSpeed) {
+    return trajectory -> {
+      Point2 last = trajectory.lastEntry().getValue();
+      if (!Double.isFinite(last.x) || !Double.isFinite(last.y)) {
+        return "blowup";
+      }
+      Map.Entry<Double, Point2> previous = trajectory.lowerEntry(trajectory.lastKey());
+      if (previous == null) {
+        return null;
+      }
+      double speed = Math.hypot(last.x - previous.getValue().x, last.y - previous.getValue().y) / (trajectory.lastKey() - previous.getKey());
+      return (speed > maxSpeed) ? "blowup" : null;
+    };
+  }
+
+  // successive halving along the episode: when crossing a rung time, only the episodes whose velocity so far would be in the
+  // top fraction of the current population at the same time go on; the episode continues, instead of being restarted, when
+  // promoted; the population changes only between iterations, hence the offspring of a generation are all ranked against the
+  // same reference, whatever the order in which they are simulated, and all of them are promoted until a population is known;
+  // outcomes are sampled every samplingInterval seconds, hence those ending less than that before a rung reached it
+  static EarlyStopPolicy halving(double fraction, double samplingInterval, Supplier<Collection<? extends Outcome>> population, double... rungs) {
+    // thresholds of the last population seen, computed once per population
+    AtomicReference<Map.Entry<Collection<? extends Outcome>, double[]>> thresholds = new AtomicReference<>();
+    return trajectory -> {
+      double t = trajectory.lastKey();
+      Double previousT = trajectory.lowerKey(t);
+      for (int i = 0; i < rungs.length; ++i) {
+        if (previousT == null || previousT >= rungs[i] || t < rungs[i]) {
+          continue;
+        }
+        Collection<? extends Outcome> outcomes = population.get();
+        Map.Entry<Collection<? extends Outcome>, double[]> entry = thresholds.get();
+        if (entry == null || entry.getKey() != outcomes) {
+          entry = Map.entry(outcomes, halvingThresholds(fraction, samplingInterval, outcomes, rungs));
+          thresholds.set(entry);
+        }
+        double velocity = (trajectory.lastEntry().getValue().x - trajectory.firstEntry().getValue().x) / (t - trajectory.firstKey());
+        return (velocity < entry.getValue()[i]) ? "halving" : null;
+      }
+      return null;
+    };
+  }
+
+  // rungs an outcome was promoted past: all of them but for episodes stopped by halving, whose last observation precedes the
+  // rung they stopped at, as the stop is checked before recording
+  static int promotions(Outcome outcome, double... rungs) {
+    if (!(outcome instanceof EarlyStoppedOutcome) || !((EarlyStoppedOutcome) outcome).getReason().equals("halving")) {
+      return rungs.length;
+    }
+    double t = outcome.getObservations().lastKey();
+    return (int) Arrays.stream(rungs).filter(rung -> rung <= t).count();
+  }
+
+  // velocity of the top fraction of the outcomes reaching each rung, over the observations up to the rung, -infinity for no
+  // outcomes; those stopped at an earlier rung are not ranked, as their velocity is over a shorter horizon
+  private static double[] halvingThresholds(double fraction, double samplingInterval, Collection<? extends Outcome> outcomes, double... rungs) {
+    double[] thresholds = new double[rungs.length];
+    for (int i = 0; i < rungs.length; ++i) {
+      double rung = rungs[i];
+      double[] velocities = outcomes.stream().filter(o -> o.getObservations().lastKey() >= rung - samplingInterval)
+              .map(o -> o.subOutcome(o.getObservations().firstKey(), rung)).filter(o -> o.getObservations().size() >= 2)
+              .mapToDouble(Outcome::getVelocity).filter(Double::isFinite).sorted().toArray();
+      thresholds[i] = (velocities.length == 0) ? Double.NEGATIVE_INFINITY : velocities[velocities.length - Math.max(1, (int) Math.ceil(velocities.length * fraction))];
+    }
+    return thresholds;
+  }
+
+  // rung times of the successive halving in a configuration as the one of parse, none without halving
+  static double[] rungs(String config) {
+    return Arrays.stream(config.split("\\+")).map(policy -> policy.split("-")).filter(params -> params[0].equals("halving"))
+            .flatMapToDouble(params -> Arrays.stream(params).skip(2).mapToDouble(Double::parseDouble)).toArray();
+  }
+
+  // e.g., "stagnation-5-0.5+slow-5-0.25+blowup-100+halving-0.33-5-15", "none" for no policy; samplingInterval is the one of the
+  // outcomes of the population
+  static List<EarlyStopPolicy> parse(String config, double samplingInterval, DoubleSupplier reference, Supplier<Collection<? extends Outcome>> population) {
+    List<EarlyStopPolicy> policies = new ArrayList<>();
+    if (config.equals("none")) {
+      return policies;
+    }
+    for (String policy : config.split("\\+")) {
+      String[] params = policy.split("-");
+      policies.add(switch (params[0]) {
+        case "stagnation" -> stagnation(Double.parseDouble(params[1]), Double.parseDouble(params[2]));
+        case "slow" -> slow(Double.parseDouble(params[1]), Double.parseDouble(params[2]), reference);
+        case "blowup" -> blowUp(Double.parseDouble(params[1]));
+        case "halving" -> halving(Double.parseDouble(params[1]), samplingInterval, population, Arrays.stream(params).skip(2).mapToDouble(Double::parseDouble).toArray());
+        default -> throw new IllegalArgumentException(String.format("Early stop policy not known: %s", params[0]));
+      });
+    }
+    return policies;
+  }
+
+}
@@ -0,0 +1,22 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+
+import java.util.Map;
+
+
+// outcome of an episode truncated by an early stop policy, covering the observations up to the stop
+public class EarlyStoppedOutcome extends Outcome {
+
+  private final String reason;
+
+  public EarlyStoppedOutcome(Map<Double, Observation> observations, String reason) {
+    super(observations);
+    this.reason = reason;
+  }
+
+  public String getReason() {
+    return this.reason;
+  }
+
+}
@@ -0,0 +1,137 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.controllers.Controller;
+import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.core.objects.ControllableVoxel;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+import org.dyn4j.dynamics.Settings;
+
+import java.util.*;
+import java.util.function.Function;
+
+
+// locomotion that gives up on hopeless episodes: the controller of the robot is wrapped by one that, at every control step,
+// records the center of the robot and checks the policies, aborting the simulation as soon as one of them fires; the
+// observations Locomotion would record, with the voxel polygons, are needed only by the outcome of a stopped episode, hence
+// they are copied only every samplingInterval seconds, e.g., twice per period of the highest frequency of the spectra
+public class EarlyStoppingLocomotion implements Function<Robot<?>, Outcome> {
+
+  private final Locomotion locomotion;
+  private final double[][] terrain;
+  private final List<EarlyStopPolicy> policies;
+  private final int samplingSteps;
+
+  public EarlyStoppingLocomotion(double episodeTime, double[][] terrain, Settings physicsSettings, List<EarlyStopPolicy> policies, double samplingInterval) {
+    this.locomotion = new Locomotion(episodeTime, terrain, physicsSettings);
+    this.terrain = terrain;
+    this.policies = policies;
+    // control steps are as long as physics steps
+    this.samplingSteps = Math.max(1, (int) Math.floor(samplingInterval / physicsSettings.getStepFrequency() + 1e-6));
+  }
+
+  @Override
+  public Outcome apply(Robot<?> robot) {
+    Watcher<?> watcher = new Watcher<>(robot.getController(), this.terrain, this.policies, this.samplingSteps);
+    try {
+      return this.locomotion.apply(watch(robot, watcher));
+    } catch (Stop stop) {
+      return new EarlyStoppedOutcome(watcher.observations, stop.getMessage());
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <V extends ControllableVoxel> Robot<V> watch(Robot<V> robot, Watcher<?> watcher) {
+    return new Robot<>((Controller<V>) watcher, robot.getVoxels());
+  }
+
+  // linear interpolation of the terrain profile, as the ground does
+  private static double yAt(double[][] terrain, double x) {
+    int i = Arrays.binarySearch(terrain[0], x);
+    if (i >= 0) {
+      return terrain[1][i];
+    }
+    i = -i - 1;
+    if (i == 0 || i == terrain[0].length) {
+      return terrain[1][Math.min(i, terrain[0].length - 1)];
+    }
+    double r = (x - terrain[0][i - 1]) / (terrain[0][i] - terrain[0][i - 1]);
+    return terrain[1][i - 1] + r * (terrain[1][i] - terrain[1][i - 1]);
+  }
+
+  // thrown through the simulation, hence without stack trace
+  private static class Stop extends RuntimeException {
+    public Stop(String reason) {
+      super(reason, null, false, false);
+    }
+  }
+
+  private static class Watcher<V extends ControllableVoxel> implements Controller<V> {
+
+    private final Controller<V> inner;
+    private final double[][] terrain;
+    private final List<EarlyStopPolicy> policies;
+    private final int samplingSteps;
+    private final NavigableMap<Double, Point2> trajectory;
+    private final Map<Double, Outcome.Observation> observations;
+    private long steps;
+    private long startNanos;
+
+    public Watcher(Controller<V> inner, double[][] terrain, List<EarlyStopPolicy> policies, int samplingSteps) {
+      this.inner = inner;
+      this.terrain = terrain;
+      this.policies = policies;
+      this.samplingSteps = samplingSteps;
+      this.trajectory = new TreeMap<>();
+      this.observations = new HashMap<>();
+      this.steps = 0;
+      this.startNanos = System.nanoTime();
+    }
+
+    @Override
+    public void control(double t, Grid<? extends V> voxels) {
+      double x = 0d;
+      double y = 0d;
+      int n = 0;
+      for (V voxel : voxels.values()) {
+        if (voxel != null) {
+          x += voxel.getCenter().x;
+          y += voxel.getCenter().y;
+          n += 1;
+        }
+      }
+      Point2 center = Point2.build(x / n, y / n);
+      this.trajectory.put(t, center);
+      // checked before recording, so that a diverged step is not part of the outcome, which spans at least two observations
+      for (int i = 0; i < this.policies.size() && this.observations.size() >= 2; ++i) {
+        String reason = this.policies.get(i).check(this.trajectory);
+        if (reason != null) {
+          throw new Stop(reason);
+        }
+      }
+      // steps are counted from the start, hence episodes stopped at the same rung end at the same observation time
+      if (this.steps % this.samplingSteps == 0) {
+        this.observations.put(t, new Outcome.Observation(
+                Grid.create(voxels, v -> (v == null) ? null : v.getVoxelPoly()),
+                yAt(this.terrain, center.x),
+                (System.nanoTime() - this.startNanos) / 1e9
+        ));
+      }
+      ++this.steps;
+      this.inner.control(t, voxels);
+    }
+
+    @Override
+    public void reset() {
+      this.inner.reset();
+      this.trajectory.clear();
+      this.observations.clear();
+      this.steps = 0;
+      this.startNanos = System.nanoTime();
+    }
+
+  }
+
+}
@@ -0,0 +1,210 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.core.geometry.Poly;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.function.Function;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+
+// disk-backed cache of outcomes of deterministic evaluations, one gzipped file per entry named after the hash of the genotype
+// and of the evaluation context; the directory is bounded in number of entries, the least recently used ones being evicted,
+// and survives the JVM, hence restarted or repeated experiments reuse the outcomes of the previous ones
+public class FitnessCache {
+
+  private static final Logger L = Logger.getLogger(FitnessCache.class.getName());
+  private static final String SUFFIX = ".outcome.gz";
+
+  private final Path dir;
+  private final int maxEntries;
+  // entry names in access order, guarded by itself
+  private final LinkedHashMap<String, Boolean> index;
+
+  public FitnessCache(String dir, int maxEntries) {
+    this.dir = Paths.get(dir);
+    this.maxEntries = maxEntries;
+    this.index = new LinkedHashMap<>(16, 0.75f, true);
+    try {
+      Files.createDirectories(this.dir);
+      // entries left by previous runs, least recently used first
+      File[] files = Objects.requireNonNull(this.dir.toFile().listFiles((d, name) -> name.endsWith(SUFFIX)));
+      Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+      for (File file : files) {
+        this.index.put(file.getName(), Boolean.TRUE);
+      }
+    } catch (IOException e) {
+      throw new RuntimeException(String.format("Cannot open fitness cache %s: %s", dir, e));
+    }
+    this.evict();
+  }
+
+  // hash of the genotype bits and of the context, e.g., mapper config, shape, sensors, terrain, episode time and early stop
+  // policies
+  public static String key(List<Double> genotype, Object... context) {
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      ByteBuffer buffer = ByteBuffer.allocate(Double.BYTES * genotype.size());
+      for (double value : DoubleGenotype.of(genotype).values()) {
+        buffer.putLong(Double.doubleToLongBits(value));
+      }
+      digest.update(buffer.array());
+      for (Object value : context) {
+        digest.update((byte) 0);
+        digest.update(String.valueOf(value).getBytes(StandardCharsets.UTF_8));
+      }
+      StringBuilder sb = new StringBuilder();
+      for (byte b : digest.digest()) {
+        sb.append(String.format("%02x", b));
+      }
+      return sb.toString();
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException(String.format("Cannot hash genotype: %s", e));
+    }
+  }
+
+  public Function<LazyRobot, Outcome> cached(Function<LazyRobot, Outcome> evaluation, Function<LazyRobot, String> key) {
+    return robot -> {
+      String k = key.apply(robot);
+      Outcome outcome = this.get(k);
+      if (outcome == null) {
+        outcome = evaluation.apply(robot);
+        // truncated outcomes depend on the population at the time of the evaluation
+        if (!(outcome instanceof EarlyStoppedOutcome)) {
+          this.put(k, outcome);
+        }
+      }
+      return outcome;
+    };
+  }
+
+  public Outcome get(String key) {
+    String name = key + SUFFIX;
+    synchronized (this.index) {
+      if (this.index.get(name) == null) {
+        return null;
+      }
+    }
+    Path file = this.dir.resolve(name);
+    try (DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file))))) {
+      Outcome outcome = read(in);
+      file.toFile().setLastModified(System.currentTimeMillis());
+      return outcome;
+    } catch (IOException e) {
+      // evicted meanwhile, or unreadable: evaluated again
+      synchronized (this.index) {
+        this.index.remove(name);
+      }
+      return null;
+    }
+  }
+
+  public void put(String key, Outcome outcome) {
+    String name = key + SUFFIX;
+    Path file = this.dir.resolve(name);
+    try {
+      // written aside and moved, so that readers, also of other processes, never see partial entries
+      Path tmp = Files.createTempFile(this.dir, key, ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp))))) {
+        write(outcome, out);
+      } catch (IOException e) {
+        Files.deleteIfExists(tmp);
+        throw e;
+      }
+      Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      L.warning(String.format("Cannot write fitness cache entry %s: %s", file, e));
+      return;
+    }
+    synchronized (this.index) {
+      this.index.put(name, Boolean.TRUE);
+    }
+    this.evict();
+  }
+
+  // the observations are all an outcome is made of: time, terrain height, computation time and the polygon of every voxel
+  private static void write(Outcome outcome, DataOutputStream out) throws IOException {
+    out.writeInt(outcome.getObservations().size());
+    for (Map.Entry<Double, Outcome.Observation> entry : outcome.getObservations().entrySet()) {
+      Outcome.Observation observation = entry.getValue();
+      out.writeDouble(entry.getKey());
+      out.writeDouble(observation.getTerrainHeight());
+      out.writeDouble(observation.getComputationTime());
+      Grid<Poly> polies = observation.getVoxelPolies();
+      out.writeInt(polies.getW());
+      out.writeInt(polies.getH());
+      for (int x = 0; x < polies.getW(); ++x) {
+        for (int y = 0; y < polies.getH(); ++y) {
+          Poly poly = polies.get(x, y);
+          out.writeInt((poly == null) ? -1 : poly.getVertexes().length);
+          if (poly != null) {
+            for (Point2 vertex : poly.getVertexes()) {
+              out.writeDouble(vertex.x);
+              out.writeDouble(vertex.y);
+            }
+          }
+        }
+      }
+    }
+  }
+
+  private static Outcome read(DataInputStream in) throws IOException {
+    int n = in.readInt();
+    Map<Double, Outcome.Observation> observations = new TreeMap<>();
+    for (int i = 0; i < n; ++i) {
+      double t = in.readDouble();
+      double terrainHeight = in.readDouble();
+      double computationTime = in.readDouble();
+      Grid<Poly> polies = Grid.create(in.readInt(), in.readInt());
+      for (int x = 0; x < polies.getW(); ++x) {
+        for (int y = 0; y < polies.getH(); ++y) {
+          int nVertexes = in.readInt();
+          if (nVertexes >= 0) {
+            Point2[] vertexes = new Point2[nVertexes];
+            for (int v = 0; v < nVertexes; ++v) {
+              vertexes[v] = Point2.build(in.readDouble(), in.readDouble());
+            }
+            polies.set(x, y, Poly.of(vertexes));
+          }
+        }
+      }
+      observations.put(t, new Outcome.Observation(polies, terrainHeight, computationTime));
+    }
+    return new Outcome(observations);
+  }
+
+  private void evict() {
+    List<String> evicted = new ArrayList<>();
+    synchronized (this.index) {
+      Iterator<String> iterator = this.index.keySet().iterator();
+      while (this.index.size() - evicted.size() > this.maxEntries && iterator.hasNext()) {
+        evicted.add(iterator.next());
+      }
+      evicted.forEach(this.index::remove);
+    }
+    for (String name : evicted) {
+      try {
+        Files.deleteIfExists(this.dir.resolve(name));
+      } catch (IOException e) {
+        L.warning(String.format("Cannot evict fitness cache entry %s: %s", name, e));
+      }
+    }
+  }
+
+  public int size() {
+    synchronized (this.index) {
+      return this.index.size();
+    }
+  }
+
+}
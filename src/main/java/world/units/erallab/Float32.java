@@ -0,0 +1,52 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.util.Grid;
+
+
+// narrows controller functions to their float32 counterparts; perceptrons are assumed to use tanh, as built by the mappers,
+// since MultiLayerPerceptron does not expose its activation
+public class Float32 {
+
+  private Float32() {
+  }
+
+  public static TimedRealFunction narrow(TimedRealFunction function) {
+    if (function instanceof SelfAttention) {
+      return new FloatSelfAttention((SelfAttention) function);
+    }
+    if (function instanceof MultiLayerPerceptron) {
+      return new FloatMultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, (MultiLayerPerceptron) function);
+    }
+    if (function instanceof RecurrentNeuralNetwork) {
+      if (((RecurrentNeuralNetwork) function).isLegacyWindow()) {
+        throw new IllegalArgumentException("Cannot narrow a recurrent network with the legacy window");
+      }
+      return new FloatRecurrentNeuralNetwork((RecurrentNeuralNetwork) function);
+    }
+    throw new IllegalArgumentException(String.format("Cannot narrow function of type %s", function.getClass().getSimpleName()));
+  }
+
+  // new function reading the same weights as an already narrowed one
+  public static TimedRealFunction share(TimedRealFunction function) {
+    if (function instanceof FloatSelfAttention) {
+      return ((FloatSelfAttention) function).shareWeights();
+    }
+    if (function instanceof FloatMultiLayerPerceptron) {
+      return function;
+    }
+    throw new IllegalArgumentException(String.format("Cannot share function of type %s", function.getClass().getSimpleName()));
+  }
+
+  public static void narrow(Grid<TimedRealFunction> functions) {
+    Conversions.convert(functions, Float32::narrow, Float32::share);
+  }
+
+  public static Robot<?> narrow(Robot<?> robot) {
+    narrow(Conversions.getFunctions(robot));
+    return robot;
+  }
+
+}
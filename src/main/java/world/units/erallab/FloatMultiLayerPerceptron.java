@@ -0,0 +1,133 @@
+package world.units.erallab;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.RealFunction;
+import it.units.erallab.hmsrobots.util.Parametrized;
+
+import java.io.Serializable;
+
+
+// float32 counterpart of MultiLayerPerceptron, same layout (weights[layer][to][from], bias at from = 0) and same semantics,
+// the activation being applied also to the inputs
+public class FloatMultiLayerPerceptron implements Serializable, RealFunction, Parametrized {
+
+  @JsonProperty
+  private final MultiLayerPerceptron.ActivationFunction activationFunction;
+  @JsonProperty
+  private final float[][][] weights;
+  @JsonProperty
+  private final int[] neurons;
+
+  @JsonCreator
+  public FloatMultiLayerPerceptron(@JsonProperty("activationFunction") MultiLayerPerceptron.ActivationFunction activationFunction,
+                                   @JsonProperty("weights") float[][][] weights,
+                                   @JsonProperty("neurons") int[] neurons) {
+    this.activationFunction = activationFunction;
+    this.weights = weights;
+    this.neurons = neurons;
+  }
+
+  public FloatMultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction activationFunction, int[] neurons) {
+    this(activationFunction, emptyWeights(neurons), neurons);
+  }
+
+  // narrows the weights once; the activation is not exposed by MultiLayerPerceptron, hence it is given explicitly
+  public FloatMultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction activationFunction, MultiLayerPerceptron source) {
+    this(activationFunction, source.getNeurons().clone());
+    this.setParams(source.getParams());
+  }
+
+  private static float[][][] emptyWeights(int[] neurons) {
+    float[][][] weights = new float[neurons.length - 1][][];
+    for (int i = 1; i < neurons.length; ++i) {
+      weights[i - 1] = new float[neurons[i]][neurons[i - 1] + 1];
+    }
+    return weights;
+  }
+
+  private float activate(float x) {
+    return (float) ((this.activationFunction == MultiLayerPerceptron.ActivationFunction.TANH) ? Activations.tanh(x) : this.activationFunction.apply(x));
+  }
+
+  @Override
+  public double[] apply(double[] input) {
+    if (input.length != this.neurons[0]) {
+      throw new IllegalArgumentException(String.format("Expected input length is %d: found %d", this.neurons[0], input.length));
+    }
+    float[] in = new float[input.length];
+    for (int i = 0; i < input.length; ++i) {
+      in[i] = (float) input[i];
+    }
+    float[] out = this.apply(in);
+    double[] output = new double[out.length];
+    for (int i = 0; i < out.length; ++i) {
+      output[i] = out[i];
+    }
+    return output;
+  }
+
+  // like MultiLayerPerceptron, activations are allocated per invocation, so that an instance can be shared by voxels evaluated in parallel
+  public float[] apply(float[] input) {
+    float[][] activationValues = new float[this.neurons.length][];
+    activationValues[0] = new float[input.length];
+    for (int i = 0; i < input.length; ++i) {
+      activationValues[0][i] = this.activate(input[i]);
+    }
+    for (int i = 1; i < this.neurons.length; ++i) {
+      float[] previous = activationValues[i - 1];
+      float[] current = activationValues[i] = new float[this.neurons[i]];
+      for (int j = 0; j < this.neurons[i]; ++j) {
+        float[] w = this.weights[i - 1][j];
+        float sum = w[0];
+        for (int k = 1; k < w.length; ++k) {
+          sum = sum + previous[k - 1] * w[k];
+        }
+        current[j] = this.activate(sum);
+      }
+    }
+    return activationValues[this.neurons.length - 1];
+  }
+
+  @Override
+  public double[] getParams() {
+    double[] params = new double[MultiLayerPerceptron.countWeights(this.neurons)];
+    int c = 0;
+    for (float[][] layer : this.weights) {
+      for (float[] row : layer) {
+        for (float w : row) {
+          params[c++] = w;
+        }
+      }
+    }
+    return params;
+  }
+
+  @Override
+  public void setParams(double[] params) {
+    this.setParams(ParameterView.of(params));
+  }
+
+  public void setParams(ParameterView params) {
+    int c = 0;
+    for (float[][] layer : this.weights) {
+      for (float[] row : layer) {
+        for (int k = 0; k < row.length; ++k) {
+          row[k] = (float) params.get(c++);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int getInputDimension() {
+    return this.neurons[0];
+  }
+
+  @Override
+  public int getOutputDimension() {
+    return this.neurons[this.neurons.length - 1];
+  }
+
+}
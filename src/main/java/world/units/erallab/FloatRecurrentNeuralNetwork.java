@@ -0,0 +1,171 @@
+package world.units.erallab;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.Resettable;
+import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
+import it.units.erallab.hmsrobots.util.Parametrized;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+// float32 counterpart of RecurrentNeuralNetwork, with the same windowed and stateful modes and the same parameter layout
+public class FloatRecurrentNeuralNetwork implements Serializable, Parametrized, TimedRealFunction, Resettable {
+
+  @JsonProperty
+  private final FloatMultiLayerPerceptron inputGate;
+  @JsonProperty
+  private final MultiLayerPerceptron.ActivationFunction hiddenActivationFunction;
+  @JsonProperty
+  private final float[][] hiddenWeights;
+  @JsonProperty
+  private final FloatMultiLayerPerceptron outputGate;
+  @JsonProperty
+  private final int steps;
+  @JsonProperty
+  private final boolean stateful;
+  private final float[] hiddenState;
+  private final float[][] gateMemory;
+  private int head;
+  private boolean primed;
+  private double lastT;
+  private double[] lastOutput;
+
+  @JsonCreator
+  public FloatRecurrentNeuralNetwork(@JsonProperty("inputGate") FloatMultiLayerPerceptron inputGate,
+                                     @JsonProperty("hiddenActivationFunction") MultiLayerPerceptron.ActivationFunction hiddenActivationFunction,
+                                     @JsonProperty("hiddenWeights") float[][] hiddenWeights,
+                                     @JsonProperty("outputGate") FloatMultiLayerPerceptron outputGate,
+                                     @JsonProperty("steps") int steps,
+                                     @JsonProperty("stateful") boolean stateful) {
+    this.inputGate = inputGate;
+    this.hiddenActivationFunction = hiddenActivationFunction;
+    this.hiddenWeights = hiddenWeights;
+    this.outputGate = outputGate;
+    this.steps = steps;
+    this.stateful = stateful;
+    this.hiddenState = new float[hiddenWeights.length];
+    this.gateMemory = new float[steps][];
+    this.reset();
+  }
+
+  public FloatRecurrentNeuralNetwork(MultiLayerPerceptron.ActivationFunction hiddenActivationFunction, MultiLayerPerceptron.ActivationFunction outputActivationFunction,
+                                     int nOfInputs, int nOfHiddenUnits, int nOfOutputs, int steps, boolean stateful) {
+    this(new FloatMultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.IDENTITY, new int[]{nOfInputs, nOfHiddenUnits}), hiddenActivationFunction,
+            new float[nOfHiddenUnits][nOfHiddenUnits], new FloatMultiLayerPerceptron(outputActivationFunction, new int[]{nOfHiddenUnits, nOfOutputs}), steps, stateful);
+  }
+
+  // narrows a double precision network whose output gate is assumed to use tanh, as built by RNNMapper
+  public FloatRecurrentNeuralNetwork(RecurrentNeuralNetwork source) {
+    this(source.getHiddenActivationFunction(), MultiLayerPerceptron.ActivationFunction.TANH, source.getInputDimension(), source.getNumberOfHiddenUnits(),
+            source.getOutputDimension(), source.getSteps(), source.isStateful());
+    this.setParams(source.getParams());
+  }
+
+  @Override
+  public double[] apply(double t, double[] inputs) {
+    if (t - this.lastT < 0.33) {
+      return this.lastOutput;
+    }
+    this.lastT = t;
+    if (this.stateful) {
+      this.recur(this.inputGate.apply(narrow(inputs)));
+    }
+    else {
+      this.reshapeMemory(inputs);
+      Arrays.fill(this.hiddenState, 0f);
+      for (int s = this.steps - 1; s >= 0; --s) {
+        this.recur(this.gateMemory[(this.head + this.steps - s) % this.steps]);
+      }
+    }
+    float[] out = this.outputGate.apply(this.hiddenState);
+    this.lastOutput = new double[out.length];
+    for (int i = 0; i < out.length; ++i) {
+      this.lastOutput[i] = out[i];
+    }
+    return this.lastOutput;
+  }
+
+  private static float[] narrow(double[] values) {
+    float[] narrowed = new float[values.length];
+    for (int i = 0; i < values.length; ++i) {
+      narrowed[i] = (float) values[i];
+    }
+    return narrowed;
+  }
+
+  // same arithmetic as RecurrentNeuralNetwork.recur
+  private void recur(float[] hiddenBias) {
+    for (int j = 0; j < this.hiddenWeights.length; ++j) {
+      float sum = hiddenBias[j];
+      for (int k = 0; k < this.hiddenWeights[j].length; ++k) {
+        sum = sum + this.hiddenState[j] * this.hiddenWeights[j][k];
+      }
+      this.hiddenState[j] = (float) ((this.hiddenActivationFunction == MultiLayerPerceptron.ActivationFunction.TANH) ? Activations.tanh(sum) : this.hiddenActivationFunction.apply(sum));
+    }
+  }
+
+  private void reshapeMemory(double[] currInput) {
+    if (!this.primed) {
+      Arrays.fill(this.gateMemory, this.inputGate.apply(new float[this.getInputDimension()]));
+      this.primed = true;
+    }
+    this.head = (this.head + 1) % this.steps;
+    this.gateMemory[this.head] = this.inputGate.apply(narrow(currInput));
+  }
+
+  @Override
+  public void reset() {
+    Arrays.fill(this.hiddenState, 0f);
+    this.primed = false;
+    this.head = 0;
+    this.lastT = 0.0;
+    this.lastOutput = new double[this.getOutputDimension()];
+  }
+
+  @Override
+  public int getInputDimension() {
+    return this.inputGate.getInputDimension();
+  }
+
+  @Override
+  public int getOutputDimension() {
+    return this.outputGate.getOutputDimension();
+  }
+
+  @Override
+  public double[] getParams() {
+    double[] inputParams = this.inputGate.getParams();
+    double[] outputParams = this.outputGate.getParams();
+    double[] params = new double[inputParams.length + this.hiddenWeights.length * this.hiddenWeights.length + outputParams.length];
+    System.arraycopy(inputParams, 0, params, 0, inputParams.length);
+    int p = inputParams.length;
+    for (float[] row : this.hiddenWeights) {
+      for (float w : row) {
+        params[p++] = w;
+      }
+    }
+    System.arraycopy(outputParams, 0, params, p, outputParams.length);
+    return params;
+  }
+
+  @Override
+  public void setParams(double[] params) { this.setParams(ParameterView.of(params)); }
+
+  public void setParams(ParameterView params) {
+    int numInputGateParams = (this.getInputDimension() + 1) * this.hiddenWeights.length;
+    int numHiddenGateParams = this.hiddenWeights.length * this.hiddenWeights.length;
+    this.inputGate.setParams(params.slice(0, numInputGateParams));
+    int p = numInputGateParams;
+    for (float[] row : this.hiddenWeights) {
+      for (int k = 0; k < row.length; ++k) {
+        row[k] = (float) params.get(p++);
+      }
+    }
+    this.outputGate.setParams(params.skip(numInputGateParams + numHiddenGateParams));
+    this.primed = false;
+  }
+
+}
@@ -0,0 +1,259 @@
+package world.units.erallab;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.Resettable;
+import it.units.erallab.hmsrobots.util.Parametrized;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+// float32 counterpart of SelfAttention (general, non-compiled attention), with the same parameter layout in setParams and the
+// same refresh policy; weights are narrowed once, inputs at every invocation
+public class FloatSelfAttention implements Serializable, Parametrized, SlottedFunction, RefreshedFunction, Resettable {
+
+  @JsonProperty
+  private final FloatMultiLayerPerceptron inner;
+  @JsonProperty
+  private final int n;
+  @JsonProperty
+  private final int din;
+  @JsonProperty
+  private final int dk;
+  @JsonProperty
+  private final int dv;
+  @JsonProperty
+  private final float[] wq;
+  @JsonProperty
+  private final float[] wk;
+  @JsonProperty
+  private final float[] wv;
+  @JsonProperty
+  private final float[] qbias;
+  @JsonProperty
+  private final float[] kbias;
+  @JsonProperty
+  private final float[] vbias;
+
+  // attention (din,din), q and k (din,dk), latent code (din,n), all row-major
+  private final float[] attention;
+  private final float[] q;
+  private final float[] k;
+  private final float[] latentCode;
+  private final float[] readings;
+  private final float scale;
+  private int lastSlot;
+  private final AttentionRefresh refresh;
+
+  @JsonCreator
+  public FloatSelfAttention(@JsonProperty("inner") FloatMultiLayerPerceptron inner,
+                            @JsonProperty("n") int n,
+                            @JsonProperty("din") int din,
+                            @JsonProperty("dk") int dk,
+                            @JsonProperty("dv") int dv,
+                            @JsonProperty("wq") float[] wq,
+                            @JsonProperty("wk") float[] wk,
+                            @JsonProperty("wv") float[] wv,
+                            @JsonProperty("qbias") float[] qbias,
+                            @JsonProperty("kbias") float[] kbias,
+                            @JsonProperty("vbias") float[] vbias) {
+    this.inner = inner;
+    this.n = n;
+    this.din = din;
+    this.dk = dk;
+    this.dv = dv;
+    this.wq = wq;
+    this.wk = wk;
+    this.wv = wv;
+    this.qbias = qbias;
+    this.kbias = kbias;
+    this.vbias = vbias;
+    this.attention = new float[din * din];
+    this.q = new float[din * dk];
+    this.k = new float[din * dk];
+    this.latentCode = new float[din * n];
+    this.readings = new float[din];
+    this.scale = (float) Math.sqrt(dk);
+    this.lastSlot = -1;
+    this.refresh = new AttentionRefresh(din);
+  }
+
+  public FloatSelfAttention(FloatMultiLayerPerceptron inner, int n, int din, int dk, int dv) {
+    this(inner, n, din, dk, dv, new float[dk], new float[dk], new float[n * dv], new float[dk], new float[dk], new float[dv]);
+  }
+
+  // narrows a double precision attention, whose downstream perceptron is assumed to use tanh as built by the mappers
+  public FloatSelfAttention(SelfAttention source) {
+    this(new FloatMultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, source.getDownstream()), source.getN(), source.getDin(), source.getDk(), source.getDv());
+    this.setSteps(source.getRefresh().getSteps());
+    this.setDriftThreshold(source.getRefresh().getDriftThreshold());
+    // SelfAttention.getAttentionParams() is ordered as wq, wk, wv, qbias, kbias, vbias
+    ParameterView params = ParameterView.of(source.getAttentionParams());
+    int s = 0;
+    for (float[] w : new float[][]{this.wq, this.wk, this.wv, this.qbias, this.kbias, this.vbias}) {
+      narrow(params, s, w);
+      s = s + w.length;
+    }
+  }
+
+  private static void narrow(ParameterView params, int from, float[] dest) {
+    for (int i = 0; i < dest.length; ++i) {
+      dest[i] = (float) params.get(from + i);
+    }
+  }
+
+  public FloatSelfAttention shareWeights() {
+    FloatSelfAttention shared = new FloatSelfAttention(this.inner, this.n, this.din, this.dk, this.dv, this.wq, this.wk, this.wv, this.qbias, this.kbias, this.vbias);
+    shared.setSteps(this.refresh.getSteps());
+    shared.setDriftThreshold(this.refresh.getDriftThreshold());
+    return shared;
+  }
+
+  public int countParams() {
+    return SelfAttention.countParams(this.din, this.dk, this.dv, this.n);
+  }
+
+  @Override
+  public double[] getParams() {
+    double[] params = new double[this.countParams() + this.inner.getParams().length];
+    int s = 0;
+    // same order as SelfAttention.getParams
+    for (float[] w : new float[][]{this.wq, this.wk, this.wv, this.qbias, this.kbias, this.vbias}) {
+      for (float value : w) {
+        params[s++] = value;
+      }
+    }
+    System.arraycopy(this.inner.getParams(), 0, params, s, params.length - s);
+    return params;
+  }
+
+  @Override
+  public void setParams(double[] params) {
+    this.setParams(ParameterView.of(params));
+  }
+
+  // same layout as SelfAttention.setParams
+  public void setParams(ParameterView params) {
+    int s = 0;
+    for (float[] w : new float[][]{this.wq, this.qbias, this.wk, this.kbias, this.wv, this.vbias}) {
+      narrow(params, s, w);
+      s = s + w.length;
+    }
+    this.inner.setParams(params.skip(s));
+  }
+
+  @Override
+  public double[] apply(double[] inputs) {
+    if (inputs.length != this.n * this.din) {
+      throw new RuntimeException(String.format("Cannot reshape vector of size %d into (%d,%d)", inputs.length, this.n, this.din));
+    }
+    int offset = 0;
+    search:
+    for (int i = 0; i < this.n; ++i) {
+      for (int j = 0; j < this.din; ++j) {
+        if (inputs[i * this.din + j] != 0.0) {
+          offset = i * this.din;
+          break search;
+        }
+      }
+    }
+    for (int i = 0; i < this.din; ++i) {
+      this.readings[i] = (float) inputs[offset + i];
+    }
+    if (this.refresh.isDue(inputs, offset)) {
+      this.computeAttention();
+    }
+    for (int i = 0; i < this.din; ++i) {
+      for (int j = 0; j < this.n; ++j) {
+        float sum = 0f;
+        for (int m = 0; m < this.din; ++m) {
+          sum += this.attention[i * this.din + m] * (float) inputs[j * this.din + m];
+        }
+        this.latentCode[i * this.n + j] = sum;
+      }
+    }
+    this.lastSlot = -1;
+    return this.downstream();
+  }
+
+  @Override
+  public double[] apply(int slot, double[] readings) {
+    if (readings.length != this.din) {
+      throw new IllegalArgumentException(String.format("Expected %d readings, found %d", this.din, readings.length));
+    }
+    for (int i = 0; i < this.din; ++i) {
+      this.readings[i] = (float) readings[i];
+    }
+    if (this.refresh.isDue(readings, 0)) {
+      this.computeAttention();
+    }
+    if (this.lastSlot != slot) {
+      Arrays.fill(this.latentCode, 0f);
+      this.lastSlot = slot;
+    }
+    for (int i = 0; i < this.din; ++i) {
+      float sum = 0f;
+      for (int m = 0; m < this.din; ++m) {
+        sum += this.attention[i * this.din + m] * this.readings[m];
+      }
+      this.latentCode[i * this.n + slot] = sum;
+    }
+    return this.downstream();
+  }
+
+  private void computeAttention() {
+    for (int i = 0; i < this.din; ++i) {
+      float x = this.readings[i];
+      for (int j = 0; j < this.dk; ++j) {
+        this.q[i * this.dk + j] = x * this.wq[j] + this.qbias[j];
+        this.k[i * this.dk + j] = x * this.wk[j] + this.kbias[j];
+      }
+    }
+    for (int i = 0; i < this.din; ++i) {
+      for (int j = 0; j < this.din; ++j) {
+        float sum = 0f;
+        for (int m = 0; m < this.dk; ++m) {
+          sum += this.q[i * this.dk + m] * this.k[j * this.dk + m];
+        }
+        this.attention[i * this.din + j] = (float) Activations.tanh(sum / this.scale);
+      }
+    }
+  }
+
+  private double[] downstream() {
+    float[] out = this.inner.apply(this.latentCode);
+    double[] outputs = new double[out.length];
+    for (int i = 0; i < out.length; ++i) {
+      outputs[i] = out[i];
+    }
+    return outputs;
+  }
+
+  public void setSteps(int steps) { this.refresh.setSteps(steps); }
+
+  public void setDriftThreshold(double driftThreshold) { this.refresh.setDriftThreshold(driftThreshold); }
+
+  @Override
+  public long getHits() { return this.refresh.getHits(); }
+
+  @Override
+  public long getMisses() { return this.refresh.getMisses(); }
+
+  @Override
+  public void reset() {
+    this.refresh.reset();
+  }
+
+  @Override
+  public int getInputDimension() {
+    return this.n * this.din;
+  }
+
+  @Override
+  public int getOutputDimension() {
+    return this.inner.getOutputDimension();
+  }
+
+}
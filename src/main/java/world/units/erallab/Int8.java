@@ -0,0 +1,98 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.util.Grid;
+
+
+// post-training quantization of controller functions to int8 with symmetric per-tensor scales (max absolute value mapped to
+// 127); perceptrons are assumed to use tanh, as built by the mappers, since MultiLayerPerceptron does not expose its activation
+public class Int8 {
+
+  // scale of values bounded in [-1,1], as the attention
+  public static final float UNIT_SCALE = 1f / 127f;
+
+  private Int8() {
+  }
+
+  public static float scale(double max) {
+    return (max == 0.0) ? 1f : (float) (max / 127.0);
+  }
+
+  public static float scale(ParameterView params) {
+    double max = 0.0;
+    for (int i = 0; i < params.length(); ++i) {
+      max = Math.max(max, Math.abs(params.get(i)));
+    }
+    return scale(max);
+  }
+
+  public static byte quantize(double value, float scale) {
+    return (byte) Math.max(-127, Math.min(127, Math.round(value / scale)));
+  }
+
+  public static byte[] quantize(ParameterView params) {
+    float scale = scale(params);
+    byte[] quantized = new byte[params.length()];
+    for (int i = 0; i < quantized.length; ++i) {
+      quantized[i] = quantize(params.get(i), scale);
+    }
+    return quantized;
+  }
+
+  public static float[] narrow(ParameterView params) {
+    float[] narrowed = new float[params.length()];
+    for (int i = 0; i < narrowed.length; ++i) {
+      narrowed[i] = (float) params.get(i);
+    }
+    return narrowed;
+  }
+
+  public static double max(double[] values, int from, int to) {
+    double max = 0.0;
+    for (int i = from; i < to; ++i) {
+      max = Math.max(max, Math.abs(values[i]));
+    }
+    return max;
+  }
+
+  public static double max(float[] values) {
+    float max = 0f;
+    for (float value : values) {
+      max = Math.max(max, Math.abs(value));
+    }
+    return max;
+  }
+
+  public static TimedRealFunction quantize(TimedRealFunction function) {
+    if (function instanceof SelfAttention) {
+      return new Int8SelfAttention((SelfAttention) function);
+    }
+    if (function instanceof MultiLayerPerceptron) {
+      return new Int8MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, (MultiLayerPerceptron) function);
+    }
+    throw new IllegalArgumentException(String.format("Cannot quantize function of type %s", function.getClass().getSimpleName()));
+  }
+
+  // new function reading the same weights as an already quantized one
+  public static TimedRealFunction share(TimedRealFunction function) {
+    if (function instanceof Int8SelfAttention) {
+      return ((Int8SelfAttention) function).shareWeights();
+    }
+    if (function instanceof Int8MultiLayerPerceptron) {
+      return function;
+    }
+    throw new IllegalArgumentException(String.format("Cannot share function of type %s", function.getClass().getSimpleName()));
+  }
+
+  public static void quantize(Grid<TimedRealFunction> functions) {
+    Conversions.convert(functions, Int8::quantize, Int8::share);
+  }
+
+  public static Robot<?> quantize(Robot<?> robot) {
+    quantize(Conversions.getFunctions(robot));
+    return robot;
+  }
+
+}
@@ -0,0 +1,127 @@
+package world.units.erallab;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.RealFunction;
+
+import java.io.Serializable;
+
+
+// post-training int8 counterpart of MultiLayerPerceptron: the weights of each layer share one scale, the biases stay in float,
+// the activations entering each layer are quantized at every invocation and the dot products accumulate in int32
+public class Int8MultiLayerPerceptron implements Serializable, RealFunction {
+
+  @JsonProperty
+  private final MultiLayerPerceptron.ActivationFunction activationFunction;
+  @JsonProperty
+  private final byte[][][] weights;
+  @JsonProperty
+  private final float[] weightScales;
+  @JsonProperty
+  private final float[][] biases;
+  @JsonProperty
+  private final int[] neurons;
+
+  @JsonCreator
+  public Int8MultiLayerPerceptron(@JsonProperty("activationFunction") MultiLayerPerceptron.ActivationFunction activationFunction,
+                                  @JsonProperty("weights") byte[][][] weights,
+                                  @JsonProperty("weightScales") float[] weightScales,
+                                  @JsonProperty("biases") float[][] biases,
+                                  @JsonProperty("neurons") int[] neurons) {
+    this.activationFunction = activationFunction;
+    this.weights = weights;
+    this.weightScales = weightScales;
+    this.biases = biases;
+    this.neurons = neurons;
+  }
+
+  // the activation is not exposed by MultiLayerPerceptron, hence it is given explicitly
+  public Int8MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction activationFunction, MultiLayerPerceptron source) {
+    this(activationFunction, new byte[source.getNeurons().length - 1][][], new float[source.getNeurons().length - 1],
+            new float[source.getNeurons().length - 1][], source.getNeurons().clone());
+    double[][][] sourceWeights = source.getWeights();
+    for (int l = 0; l < sourceWeights.length; ++l) {
+      double max = 0.0;
+      for (double[] row : sourceWeights[l]) {
+        for (int k = 1; k < row.length; ++k) {
+          max = Math.max(max, Math.abs(row[k]));
+        }
+      }
+      this.weightScales[l] = Int8.scale(max);
+      this.weights[l] = new byte[sourceWeights[l].length][];
+      this.biases[l] = new float[sourceWeights[l].length];
+      for (int j = 0; j < sourceWeights[l].length; ++j) {
+        double[] row = sourceWeights[l][j];
+        this.biases[l][j] = (float) row[0];
+        this.weights[l][j] = new byte[row.length - 1];
+        for (int k = 1; k < row.length; ++k) {
+          this.weights[l][j][k - 1] = Int8.quantize(row[k], this.weightScales[l]);
+        }
+      }
+    }
+  }
+
+  private float activate(float x) {
+    return (float) ((this.activationFunction == MultiLayerPerceptron.ActivationFunction.TANH) ? Activations.tanh(x) : this.activationFunction.apply(x));
+  }
+
+  @Override
+  public double[] apply(double[] input) {
+    if (input.length != this.neurons[0]) {
+      throw new IllegalArgumentException(String.format("Expected input length is %d: found %d", this.neurons[0], input.length));
+    }
+    float[] in = new float[input.length];
+    for (int i = 0; i < input.length; ++i) {
+      in[i] = (float) input[i];
+    }
+    float[] out = this.apply(in);
+    double[] output = new double[out.length];
+    for (int i = 0; i < out.length; ++i) {
+      output[i] = out[i];
+    }
+    return output;
+  }
+
+  // buffers are allocated per invocation, so that an instance can be shared by voxels evaluated in parallel
+  public float[] apply(float[] input) {
+    float[] previous = new float[input.length];
+    for (int i = 0; i < input.length; ++i) {
+      previous[i] = this.activate(input[i]);
+    }
+    for (int l = 0; l < this.weights.length; ++l) {
+      float max = 0f;
+      for (float value : previous) {
+        max = Math.max(max, Math.abs(value));
+      }
+      float inputScale = Int8.scale(max);
+      byte[] quantized = new byte[previous.length];
+      for (int k = 0; k < previous.length; ++k) {
+        quantized[k] = Int8.quantize(previous[k], inputScale);
+      }
+      float outputScale = inputScale * this.weightScales[l];
+      float[] current = new float[this.neurons[l + 1]];
+      for (int j = 0; j < current.length; ++j) {
+        byte[] w = this.weights[l][j];
+        int sum = 0;
+        for (int k = 0; k < w.length; ++k) {
+          sum += quantized[k] * w[k];
+        }
+        current[j] = this.activate(this.biases[l][j] + sum * outputScale);
+      }
+      previous = current;
+    }
+    return previous;
+  }
+
+  @Override
+  public int getInputDimension() {
+    return this.neurons[0];
+  }
+
+  @Override
+  public int getOutputDimension() {
+    return this.neurons[this.neurons.length - 1];
+  }
+
+}
@@ -0,0 +1,226 @@
+package world.units.erallab;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.Resettable;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+// post-training int8 counterpart of SelfAttention (general attention, with the refresh policy of the source): queries and
+// keys weights and the downstream perceptron are quantized with one scale per tensor, queries, keys and attention are
+// quantized at every refresh, readings at every invocation, and both products accumulate in int32
+public class Int8SelfAttention implements Serializable, SlottedFunction, RefreshedFunction, Resettable {
+
+  @JsonProperty
+  private final Int8MultiLayerPerceptron inner;
+  @JsonProperty
+  private final int n;
+  @JsonProperty
+  private final int din;
+  @JsonProperty
+  private final int dk;
+  @JsonProperty
+  private final byte[] wq;
+  @JsonProperty
+  private final byte[] wk;
+  @JsonProperty
+  private final float wqScale;
+  @JsonProperty
+  private final float wkScale;
+  @JsonProperty
+  private final float[] qbias;
+  @JsonProperty
+  private final float[] kbias;
+
+  // attention (din,din), q and k (din,dk), latent code (din,n), all row-major
+  private final byte[] attention;
+  private final float[] q;
+  private final float[] k;
+  private final byte[] quantizedQ;
+  private final byte[] quantizedK;
+  private final float[] latentCode;
+  private final float scale;
+  private int lastSlot;
+  private final AttentionRefresh refresh;
+
+  @JsonCreator
+  public Int8SelfAttention(@JsonProperty("inner") Int8MultiLayerPerceptron inner,
+                           @JsonProperty("n") int n,
+                           @JsonProperty("din") int din,
+                           @JsonProperty("dk") int dk,
+                           @JsonProperty("wq") byte[] wq,
+                           @JsonProperty("wk") byte[] wk,
+                           @JsonProperty("wqScale") float wqScale,
+                           @JsonProperty("wkScale") float wkScale,
+                           @JsonProperty("qbias") float[] qbias,
+                           @JsonProperty("kbias") float[] kbias) {
+    this.inner = inner;
+    this.n = n;
+    this.din = din;
+    this.dk = dk;
+    this.wq = wq;
+    this.wk = wk;
+    this.wqScale = wqScale;
+    this.wkScale = wkScale;
+    this.qbias = qbias;
+    this.kbias = kbias;
+    this.attention = new byte[din * din];
+    this.q = new float[din * dk];
+    this.k = new float[din * dk];
+    this.quantizedQ = new byte[din * dk];
+    this.quantizedK = new byte[din * dk];
+    this.latentCode = new float[din * n];
+    this.scale = (float) Math.sqrt(dk);
+    this.lastSlot = -1;
+    this.refresh = new AttentionRefresh(din);
+  }
+
+  // quantizes a double precision attention, whose downstream perceptron is assumed to use tanh as built by the mappers
+  public Int8SelfAttention(SelfAttention source) {
+    this(new Int8MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, source.getDownstream()), source.getN(), source.getDin(), source.getDk(),
+            source.getN() * source.getDv(), ParameterView.of(source.getAttentionParams()));
+    this.setSteps(source.getRefresh().getSteps());
+    this.setDriftThreshold(source.getRefresh().getDriftThreshold());
+  }
+
+  // SelfAttention.getAttentionParams() is ordered as wq, wk, wv, qbias, kbias, vbias; values are not used by the attention
+  private Int8SelfAttention(Int8MultiLayerPerceptron inner, int n, int din, int dk, int nValues, ParameterView params) {
+    this(inner, n, din, dk, Int8.quantize(params.slice(0, dk)), Int8.quantize(params.slice(dk, dk)), Int8.scale(params.slice(0, dk)),
+            Int8.scale(params.slice(dk, dk)), Int8.narrow(params.slice(2 * dk + nValues, dk)), Int8.narrow(params.slice(3 * dk + nValues, dk)));
+  }
+
+  public Int8SelfAttention shareWeights() {
+    Int8SelfAttention shared = new Int8SelfAttention(this.inner, this.n, this.din, this.dk, this.wq, this.wk, this.wqScale, this.wkScale, this.qbias, this.kbias);
+    shared.setSteps(this.refresh.getSteps());
+    shared.setDriftThreshold(this.refresh.getDriftThreshold());
+    return shared;
+  }
+
+  @Override
+  public double[] apply(double[] inputs) {
+    if (inputs.length != this.n * this.din) {
+      throw new RuntimeException(String.format("Cannot reshape vector of size %d into (%d,%d)", inputs.length, this.n, this.din));
+    }
+    int offset = 0;
+    search:
+    for (int i = 0; i < this.n; ++i) {
+      for (int j = 0; j < this.din; ++j) {
+        if (inputs[i * this.din + j] != 0.0) {
+          offset = i * this.din;
+          break search;
+        }
+      }
+    }
+    if (this.refresh.isDue(inputs, offset)) {
+      this.computeAttention(inputs, offset);
+    }
+    float inputScale = Int8.scale(Int8.max(inputs, 0, inputs.length));
+    byte[] quantized = new byte[inputs.length];
+    for (int i = 0; i < inputs.length; ++i) {
+      quantized[i] = Int8.quantize(inputs[i], inputScale);
+    }
+    for (int i = 0; i < this.din; ++i) {
+      for (int j = 0; j < this.n; ++j) {
+        this.latentCode[i * this.n + j] = this.latent(i, quantized, j * this.din, inputScale);
+      }
+    }
+    this.lastSlot = -1;
+    return this.downstream();
+  }
+
+  @Override
+  public double[] apply(int slot, double[] readings) {
+    if (readings.length != this.din) {
+      throw new IllegalArgumentException(String.format("Expected %d readings, found %d", this.din, readings.length));
+    }
+    if (this.refresh.isDue(readings, 0)) {
+      this.computeAttention(readings, 0);
+    }
+    if (this.lastSlot != slot) {
+      Arrays.fill(this.latentCode, 0f);
+      this.lastSlot = slot;
+    }
+    float inputScale = Int8.scale(Int8.max(readings, 0, this.din));
+    byte[] quantized = new byte[this.din];
+    for (int i = 0; i < this.din; ++i) {
+      quantized[i] = Int8.quantize(readings[i], inputScale);
+    }
+    for (int i = 0; i < this.din; ++i) {
+      this.latentCode[i * this.n + slot] = this.latent(i, quantized, 0, inputScale);
+    }
+    return this.downstream();
+  }
+
+  // attention values are in [-1,1], hence their scale is fixed
+  private float latent(int row, byte[] inputs, int offset, float inputScale) {
+    int sum = 0;
+    for (int m = 0; m < this.din; ++m) {
+      sum += this.attention[row * this.din + m] * inputs[offset + m];
+    }
+    return sum * inputScale * Int8.UNIT_SCALE;
+  }
+
+  private void computeAttention(double[] inputs, int offset) {
+    for (int i = 0; i < this.din; ++i) {
+      float x = (float) inputs[offset + i];
+      for (int j = 0; j < this.dk; ++j) {
+        this.q[i * this.dk + j] = x * this.wq[j] * this.wqScale + this.qbias[j];
+        this.k[i * this.dk + j] = x * this.wk[j] * this.wkScale + this.kbias[j];
+      }
+    }
+    float qScale = Int8.scale(Int8.max(this.q));
+    float kScale = Int8.scale(Int8.max(this.k));
+    for (int i = 0; i < this.q.length; ++i) {
+      this.quantizedQ[i] = Int8.quantize(this.q[i], qScale);
+      this.quantizedK[i] = Int8.quantize(this.k[i], kScale);
+    }
+    float productScale = qScale * kScale / this.scale;
+    for (int i = 0; i < this.din; ++i) {
+      for (int j = 0; j < this.din; ++j) {
+        int sum = 0;
+        for (int m = 0; m < this.dk; ++m) {
+          sum += this.quantizedQ[i * this.dk + m] * this.quantizedK[j * this.dk + m];
+        }
+        this.attention[i * this.din + j] = Int8.quantize(Activations.tanh(sum * productScale), Int8.UNIT_SCALE);
+      }
+    }
+  }
+
+  private double[] downstream() {
+    float[] out = this.inner.apply(this.latentCode);
+    double[] outputs = new double[out.length];
+    for (int i = 0; i < out.length; ++i) {
+      outputs[i] = out[i];
+    }
+    return outputs;
+  }
+
+  public void setSteps(int steps) { this.refresh.setSteps(steps); }
+
+  public void setDriftThreshold(double driftThreshold) { this.refresh.setDriftThreshold(driftThreshold); }
+
+  @Override
+  public long getHits() { return this.refresh.getHits(); }
+
+  @Override
+  public long getMisses() { return this.refresh.getMisses(); }
+
+  @Override
+  public void reset() {
+    this.refresh.reset();
+  }
+
+  @Override
+  public int getInputDimension() {
+    return this.n * this.din;
+  }
+
+  @Override
+  public int getOutputDimension() {
+    return this.inner.getOutputDimension();
+  }
+
+}
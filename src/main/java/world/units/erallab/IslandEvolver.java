@@ -0,0 +1,285 @@
+package world.units.erallab;
+
+import it.units.malelab.jgea.core.Factory;
+import it.units.malelab.jgea.core.Individual;
+import it.units.malelab.jgea.core.evolver.Event;
+import it.units.malelab.jgea.core.evolver.Evolver;
+import it.units.malelab.jgea.core.evolver.State;
+import it.units.malelab.jgea.core.listener.Listener;
+import it.units.malelab.jgea.core.operator.GeneticOperator;
+import it.units.malelab.jgea.core.order.DAGPartiallyOrderedCollection;
+import it.units.malelab.jgea.core.order.PartialComparator;
+import it.units.malelab.jgea.core.order.PartiallyOrderedCollection;
+import it.units.malelab.jgea.core.selector.Selector;
+import it.units.malelab.jgea.core.util.Misc;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+
+// island model: nOfIslands populations evolve concurrently, each with the loop of the standard evolver, its own random
+// generator, drawn from the given one, its own fitness function, if a factory of them is given, and its own evaluation
+// threads; each genotype is evaluated with a seed drawn from the island generator before the evaluations start, e.g., for
+// its own random terrain, so that concurrent evaluations do not share a generator; every migrationInterval iterations each island sends its nOfMigrants best
+// individuals to the next one on a ring and blocks until those of the previous one arrive, hence islands evolve as they would
+// sequentially and runs are reproducible; listeners and stop conditions see, once per iteration, the union of the islands
+public class IslandEvolver<G, S, F> implements Evolver<G, S, F> {
+
+  private final Function<? super G, ? extends S> solutionMapper;
+  private final Factory<? extends G> genotypeFactory;
+  private final PartialComparator<? super Individual<G, S, F>> individualComparator;
+  private final int populationSize;
+  private final Map<GeneticOperator<G>, Double> operators;
+  private final Selector<? super Individual<? super G, ? super S, ? super F>> parentSelector;
+  private final Selector<? super Individual<? super G, ? super S, ? super F>> unsurvivalSelector;
+  private final int offspringSize;
+  private final boolean overlapping;
+  private final boolean remap;
+  private final int nOfIslands;
+  private final int migrationInterval;
+  private final int nOfMigrants;
+  private final int nOfThreads;
+  private final BiFunction<Random, ExecutorService, BiFunction<S, Long, F>> fitnessFunctionFactory;
+
+  // fitnessFunctionFactory builds the fitness function of each island, of a solution and its seed, from a random generator
+  // drawn from the island one and the evaluation threads of the island; the fitness function given to solve, which ignores
+  // the seed, is used by all the islands when null
+  public IslandEvolver(Function<? super G, ? extends S> solutionMapper, Factory<? extends G> genotypeFactory, PartialComparator<? super Individual<G, S, F>> individualComparator, int populationSize, Map<GeneticOperator<G>, Double> operators, Selector<? super Individual<? super G, ? super S, ? super F>> parentSelector, Selector<? super Individual<? super G, ? super S, ? super F>> unsurvivalSelector, int offspringSize, boolean overlapping, boolean remap, int nOfIslands, int migrationInterval, int nOfMigrants, int nOfThreads, BiFunction<Random, ExecutorService, BiFunction<S, Long, F>> fitnessFunctionFactory) {
+    this.solutionMapper = solutionMapper;
+    this.genotypeFactory = genotypeFactory;
+    this.individualComparator = individualComparator;
+    this.populationSize = populationSize;
+    this.operators = operators;
+    this.parentSelector = parentSelector;
+    this.unsurvivalSelector = unsurvivalSelector;
+    this.offspringSize = offspringSize;
+    this.overlapping = overlapping;
+    this.remap = remap;
+    this.nOfIslands = nOfIslands;
+    this.migrationInterval = migrationInterval;
+    this.nOfMigrants = nOfMigrants;
+    this.nOfThreads = nOfThreads;
+    this.fitnessFunctionFactory = fitnessFunctionFactory;
+  }
+
+  // the islands do not share the evaluation queue of the given executor: each one gets its share of the threads
+  @Override
+  public Collection<S> solve(Function<S, F> fitnessFunction, Predicate<? super Event<G, S, F>> stopCondition, Random random, ExecutorService executor, Listener<? super Event<G, S, F>> listener) throws InterruptedException, ExecutionException {
+    Archipelago archipelago = new Archipelago(stopCondition, listener);
+    ExecutorService islandExecutor = Executors.newFixedThreadPool(this.nOfIslands);
+    List<ExecutorService> evaluationExecutors = new ArrayList<>();
+    List<Future<?>> islands = new ArrayList<>();
+    for (int i = 0; i < this.nOfIslands; ++i) {
+      ExecutorService evaluationExecutor = Executors.newFixedThreadPool(Math.max(1, this.nOfThreads / this.nOfIslands));
+      evaluationExecutors.add(evaluationExecutor);
+      Random islandRandom = new Random(random.nextLong());
+      BiFunction<S, Long, F> islandFitnessFunction = (this.fitnessFunctionFactory == null) ? (s, seed) -> fitnessFunction.apply(s) : this.fitnessFunctionFactory.apply(new Random(islandRandom.nextLong()), evaluationExecutor);
+      Island island = new Island(i, islandRandom, islandFitnessFunction, evaluationExecutor, archipelago);
+      islands.add(islandExecutor.submit(() -> {
+        try {
+          island.evolve();
+        } catch (InterruptedException | ExecutionException | RuntimeException e) {
+          // the other islands would wait forever for the migrants of this one
+          archipelago.stop(-1);
+          throw e;
+        }
+        return null;
+      }));
+    }
+    try {
+      for (Future<?> island : islands) {
+        island.get();
+      }
+    } finally {
+      islandExecutor.shutdownNow();
+      evaluationExecutors.forEach(ExecutorService::shutdownNow);
+    }
+    listener.done();
+    return archipelago.population.firsts().stream().map(Individual::getSolution).collect(Collectors.toList());
+  }
+
+  // state shared by the islands of one run
+  private class Archipelago {
+
+    private final Predicate<? super Event<G, S, F>> stopCondition;
+    private final Listener<? super Event<G, S, F>> listener;
+    private final long startMillis;
+    private final List<BlockingQueue<List<Individual<G, S, F>>>> inboxes;
+    // put into every inbox when stopping, for waking up the islands waiting for migrants
+    private final List<Individual<G, S, F>> wakeUp;
+    // islands at each iteration, until all of them reach it
+    private final Map<Integer, AtomicReferenceArray<Snapshot>> snapshots;
+    private final Map<Integer, AtomicInteger> nOfSnapshots;
+    private volatile int stopIteration;
+    private PartiallyOrderedCollection<Individual<G, S, F>> population;
+
+    public Archipelago(Predicate<? super Event<G, S, F>> stopCondition, Listener<? super Event<G, S, F>> listener) {
+      this.stopCondition = stopCondition;
+      this.listener = listener;
+      this.startMillis = System.currentTimeMillis();
+      this.inboxes = new ArrayList<>();
+      for (int i = 0; i < IslandEvolver.this.nOfIslands; ++i) {
+        this.inboxes.add(new LinkedBlockingQueue<>());
+      }
+      this.wakeUp = new ArrayList<>();
+      this.snapshots = new ConcurrentHashMap<>();
+      this.nOfSnapshots = new ConcurrentHashMap<>();
+      this.stopIteration = Integer.MAX_VALUE;
+    }
+
+    // the last island reaching an iteration emits its event, before going on, hence events are emitted in order; counters
+    // are those of the islands at that iteration, not at the time of emission, so that stop conditions are reproducible
+    public void publish(int island, int iteration, Snapshot snapshot) {
+      this.snapshots.computeIfAbsent(iteration, k -> new AtomicReferenceArray<>(IslandEvolver.this.nOfIslands)).set(island, snapshot);
+      if (this.nOfSnapshots.computeIfAbsent(iteration, k -> new AtomicInteger()).incrementAndGet() < IslandEvolver.this.nOfIslands) {
+        return;
+      }
+      AtomicReferenceArray<Snapshot> islands = this.snapshots.remove(iteration);
+      this.nOfSnapshots.remove(iteration);
+      List<Individual<G, S, F>> all = new ArrayList<>();
+      State state = new State();
+      state.incIterations(iteration);
+      for (int i = 0; i < IslandEvolver.this.nOfIslands; ++i) {
+        all.addAll(islands.get(i).population);
+        state.incBirths(islands.get(i).nOfBirths);
+        state.incFitnessEvaluations(islands.get(i).nOfFitnessEvaluations);
+      }
+      state.setElapsedMillis(System.currentTimeMillis() - this.startMillis);
+      this.population = new DAGPartiallyOrderedCollection<>(all, IslandEvolver.this.individualComparator);
+      Event<G, S, F> event = new Event<>(state, this.population);
+      this.listener.listen(event);
+      if (this.stopCondition.test(event)) {
+        this.stop(iteration);
+      }
+    }
+
+    public void stop(int iteration) {
+      this.stopIteration = iteration;
+      this.inboxes.forEach(inbox -> inbox.add(this.wakeUp));
+    }
+
+  }
+
+  private class Snapshot {
+
+    private final List<Individual<G, S, F>> population;
+    private final int nOfBirths;
+    private final int nOfFitnessEvaluations;
+
+    public Snapshot(Collection<Individual<G, S, F>> population, int nOfBirths, int nOfFitnessEvaluations) {
+      this.population = new ArrayList<>(population);
+      this.nOfBirths = nOfBirths;
+      this.nOfFitnessEvaluations = nOfFitnessEvaluations;
+    }
+
+  }
+
+  private class Island {
+
+    private final int index;
+    private final Random random;
+    private final BiFunction<S, Long, F> fitnessFunction;
+    private final ExecutorService executor;
+    private final Archipelago archipelago;
+    private int nOfBirths;
+    private int nOfFitnessEvaluations;
+
+    public Island(int index, Random random, BiFunction<S, Long, F> fitnessFunction, ExecutorService executor, Archipelago archipelago) {
+      this.index = index;
+      this.random = random;
+      this.fitnessFunction = fitnessFunction;
+      this.executor = executor;
+      this.archipelago = archipelago;
+    }
+
+    public void evolve() throws InterruptedException, ExecutionException {
+      this.nOfBirths += IslandEvolver.this.populationSize;
+      PartiallyOrderedCollection<Individual<G, S, F>> population = new DAGPartiallyOrderedCollection<>(this.evaluate(new ArrayList<>(IslandEvolver.this.genotypeFactory.build(IslandEvolver.this.populationSize, this.random)), 0), IslandEvolver.this.individualComparator);
+      int iteration = 0;
+      while (true) {
+        if (iteration > 0 && iteration % IslandEvolver.this.migrationInterval == 0 && !this.migrate(population, iteration)) {
+          return;
+        }
+        this.archipelago.publish(this.index, iteration, new Snapshot(population.all(), this.nOfBirths, this.nOfFitnessEvaluations));
+        // islands ahead of the stop iteration discard their work, as the outcome is the population at that iteration
+        if (iteration >= this.archipelago.stopIteration) {
+          return;
+        }
+        iteration += 1;
+        List<G> offspring = new ArrayList<>();
+        while (offspring.size() < IslandEvolver.this.offspringSize) {
+          GeneticOperator<G> operator = Misc.pickRandomly(IslandEvolver.this.operators, this.random);
+          List<G> parents = new ArrayList<>(operator.arity());
+          for (int i = 0; i < operator.arity(); ++i) {
+            parents.add(IslandEvolver.this.parentSelector.select(population, this.random).getGenotype());
+          }
+          offspring.addAll(operator.apply(parents, this.random));
+        }
+        this.nOfBirths += offspring.size();
+        List<Individual<G, S, F>> next = new ArrayList<>(this.evaluate(offspring, iteration));
+        if (IslandEvolver.this.overlapping) {
+          // noisy fitness of the parents is evaluated again, as the standard evolver does
+          if (IslandEvolver.this.remap) {
+            List<Individual<G, S, F>> parents = new ArrayList<>(population.all());
+            List<Individual<G, S, F>> remapped = this.evaluate(parents.stream().map(Individual::getGenotype).collect(Collectors.toList()), iteration);
+            for (int i = 0; i < parents.size(); ++i) {
+              next.add(new Individual<>(parents.get(i).getGenotype(), remapped.get(i).getSolution(), remapped.get(i).getFitness(), parents.get(i).getBirthIteration()));
+            }
+          } else {
+            next.addAll(population.all());
+          }
+        }
+        population = new DAGPartiallyOrderedCollection<>(next, IslandEvolver.this.individualComparator);
+        while (population.all().size() > IslandEvolver.this.populationSize) {
+          population.remove(IslandEvolver.this.unsurvivalSelector.select(population, this.random));
+        }
+      }
+    }
+
+    // false if the run stopped before the migrants of the previous island arrived
+    private boolean migrate(PartiallyOrderedCollection<Individual<G, S, F>> population, int iteration) throws InterruptedException {
+      List<Individual<G, S, F>> emigrants = population.firsts().stream().limit(IslandEvolver.this.nOfMigrants).collect(Collectors.toList());
+      this.archipelago.inboxes.get((this.index + 1) % IslandEvolver.this.nOfIslands).add(emigrants);
+      // one sender per inbox, hence, wake ups apart, the head holds the migrants of this iteration; the previous island still
+      // sends them if the run stops at a later iteration
+      BlockingQueue<List<Individual<G, S, F>>> inbox = this.archipelago.inboxes.get(this.index);
+      List<Individual<G, S, F>> immigrants;
+      while ((immigrants = inbox.take()) == this.archipelago.wakeUp) {
+        if (this.archipelago.stopIteration < iteration) {
+          return false;
+        }
+      }
+      immigrants.forEach(population::add);
+      while (population.all().size() > IslandEvolver.this.populationSize) {
+        population.remove(IslandEvolver.this.unsurvivalSelector.select(population, this.random));
+      }
+      return true;
+    }
+
+    // results in the order of the genotypes, whatever the order of completion; seeds are drawn here, on the island thread
+    private List<Individual<G, S, F>> evaluate(List<? extends G> genotypes, int iteration) throws InterruptedException, ExecutionException {
+      List<Callable<Individual<G, S, F>>> evaluations = new ArrayList<>();
+      for (G genotype : genotypes) {
+        long seed = this.random.nextLong();
+        evaluations.add(() -> {
+          S solution = IslandEvolver.this.solutionMapper.apply(genotype);
+          return new Individual<>(genotype, solution, this.fitnessFunction.apply(solution, seed), iteration);
+        });
+      }
+      List<Individual<G, S, F>> individuals = new ArrayList<>();
+      for (Future<Individual<G, S, F>> future : this.executor.invokeAll(evaluations)) {
+        individuals.add(future.get());
+      }
+      this.nOfFitnessEvaluations += genotypes.size();
+      return individuals;
+    }
+
+  }
+
+}
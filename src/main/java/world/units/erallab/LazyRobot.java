@@ -0,0 +1,86 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.controllers.Controller;
+import it.units.erallab.hmsrobots.core.controllers.StepController;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+
+import java.util.List;
+import java.util.function.Function;
+
+
+// phenotype handle holding only the genotype and the robot pool of the mapper: the robot is built or borrowed on demand, for an
+// evaluation or a listener, and is not retained afterwards; the controller statistics of the last evaluation are kept
+public class LazyRobot {
+
+  private final List<Double> genotype;
+  private final RobotPool pool;
+  private volatile double uniformity;
+  private volatile double attentionHitRate;
+
+  public LazyRobot(List<Double> genotype, RobotPool pool) {
+    this.genotype = genotype;
+    this.pool = pool;
+    this.uniformity = -1.0;
+    this.attentionHitRate = -1.0;
+  }
+
+  // a new robot at every invocation
+  public Robot<?> get() {
+    return this.pool.build(this.genotype);
+  }
+
+  // the robot is borrowed from the pool of the evaluating thread and returned once evaluated
+  public Outcome evaluate(Function<Robot<?>, Outcome> task) {
+    double[] statistics = new double[]{-1.0, -1.0};
+    Outcome outcome = this.evaluate(task, statistics);
+    this.setStatistics(statistics[0], statistics[1]);
+    return outcome;
+  }
+
+  // the controller statistics, uniformity and attention hit rate, are written into the given array instead of being kept,
+  // e.g., for concurrent evaluations of the same robot
+  Outcome evaluate(Function<Robot<?>, Outcome> task, double[] statistics) {
+    Robot<?> robot = this.pool.borrow(this.genotype);
+    try {
+      Outcome outcome = task.apply(robot);
+      Controller<?> controller = robot.getController();
+      if (controller instanceof StepController) {
+        controller = ((StepController<?>) controller).getInnerController();
+      }
+      if (controller instanceof PartiallyDistributedSensing) {
+        statistics[0] = ((PartiallyDistributedSensing) controller).getUniformity();
+        statistics[1] = ((PartiallyDistributedSensing) controller).getAttentionHitRate();
+      }
+      return outcome;
+    }
+    finally {
+      this.pool.release(robot);
+    }
+  }
+
+  // the shape of the robot, known from the mapper without building it
+  public Grid<? extends SensingVoxel> getBody() {
+    return this.pool.getBody();
+  }
+
+  void setStatistics(double uniformity, double attentionHitRate) {
+    this.uniformity = uniformity;
+    this.attentionHitRate = attentionHitRate;
+  }
+
+  public List<Double> getGenotype() {
+    return this.genotype;
+  }
+
+  public double getUniformity() {
+    return this.uniformity;
+  }
+
+  public double getAttentionHitRate() {
+    return this.attentionHitRate;
+  }
+
+}
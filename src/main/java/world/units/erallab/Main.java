@@ -1,7 +1,6 @@
 package world.units.erallab;
 
 import com.google.common.base.Stopwatch;
-import com.google.common.collect.Range;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
@@ -23,18 +22,19 @@ import it.units.malelab.jgea.core.selector.Worst;
 import it.units.malelab.jgea.core.util.Args;
 import it.units.malelab.jgea.core.util.Misc;
 
-import it.units.malelab.jgea.representation.sequence.FixedLengthListFactory;
-import it.units.malelab.jgea.representation.sequence.numeric.GaussianMutation;
-import it.units.malelab.jgea.representation.sequence.numeric.GeometricCrossover;
-import it.units.malelab.jgea.representation.sequence.numeric.UniformDoubleFactory;
-
 import java.io.*;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import org.dyn4j.dynamics.Settings;
+import world.units.erallab.algebra.LinearAlgebras;
 import world.units.erallab.mappers.AbstractPartiallyDistributedMapper;
 import world.units.erallab.mappers.GenotypeSized;
 import world.units.erallab.mappers.SelfAttentionPartiallyDistributedMapper;
@@ -56,8 +56,23 @@ public class Main extends Worker {
   private static String transformation;
   private static final double frequencyThreshold = 10.0D;
   private static final int nFrequencySamples = 100;
+  // sampling of the outcomes of stopped episodes, just enough for the spectra of the logged outcome functions
+  private static final double samplingInterval = 1.0D / (2.0D * frequencyThreshold);
   private static String  bestFileName = "./output/";
   private static Settings physicsSettings;
+  private static FitnessCache fitnessCache;
+  // intra-step voxel parallelism of the robots built by the mapper of the run, none by default
+  private static ForkJoinPool voxelPool;
+  private static int voxelThreshold = Integer.MAX_VALUE;
+  private static String earlyStop;
+  private static String racing;
+  private static String evolverType;
+  // median velocity of the current population, the reference of the early stop policies
+  private static volatile double populationVelocity = Double.NaN;
+  // worst velocity kept in the current population, the reference of racing
+  private static volatile double worstVelocity = Double.NaN;
+  // outcomes of the current population, the reference of successive halving
+  private static volatile Collection<? extends Outcome> populationOutcomes = List.of();
 
   public Main(String[] args) {
     super(args);
@@ -79,6 +94,23 @@ public class Main extends Worker {
     transformation = this.a("transformation", "identity");
     episodeTime = 30.0D;
     physicsSettings = new Settings();
+    Activations.setMode(this.a("activation", "exact"));
+    LinearAlgebras.force(this.a("algebra", "auto"));
+    setupParallelEvaluation(Args.i(this.a("voxelthreads", "0")), Args.i(this.a("voxelthreshold", "32")));
+    earlyStop = this.a("earlystop", "none");
+    // successive halving as "<fraction>-<rung time>-...", e.g., "0.33-5-15" for promoting the best third at 5 s and 15 s
+    String halving = this.a("halving", "none");
+    if (!halving.equals("none")) {
+      earlyStop = (earlyStop.equals("none") ? "" : earlyStop + "+") + "halving-" + halving;
+    }
+    // racing as "<terrains>-<terrains per round>-<z>", e.g., "8-2-1.96", only for random terrains
+    racing = this.a("racing", "none");
+    if (!racing.equals("none") && !terrain.contains("-rnd")) {
+      L.warning(String.format("Terrain %s is not random, racing %s not used", terrain, racing));
+      racing = "none";
+    }
+    evolverType = this.a("evolver", "standard");
+    setupFitnessCache(this.a("cache", ""), Args.i(this.a("cachesize", "100000")));
     bestFileName += String.join(".", (isFineTuning) ? "finetune" : "best", String.valueOf(seed), exp, config, shape, sensorConfig.split("-")[0], "csv");
 
     try {
@@ -88,17 +120,59 @@ public class Main extends Worker {
     }
   }
 
+  // intra-step voxel parallelism gets only the cores left over by the population-level workers
+  private void setupParallelEvaluation(int voxelThreads, int threshold) {
+    if (voxelThreads <= 1) {
+      return;
+    }
+    int cores = Runtime.getRuntime().availableProcessors();
+    int populationThreads = this.getPopulationThreads();
+    int perEvaluation = Math.min(voxelThreads, cores / populationThreads);
+    if (perEvaluation <= 1) {
+      L.warning(String.format("No cores left for %d voxel threads with %d population threads on %d cores, voxels are evaluated sequentially", voxelThreads, populationThreads, cores));
+      return;
+    }
+    voxelPool = new ForkJoinPool(perEvaluation * populationThreads);
+    voxelThreshold = threshold;
+    L.info(String.format("Evaluating voxels with %d threads per evaluation for bodies of at least %d voxels", perEvaluation, threshold));
+  }
+
+  private int getPopulationThreads() {
+    return (this.executorService instanceof ThreadPoolExecutor) ? ((ThreadPoolExecutor) this.executorService).getMaximumPoolSize() : Runtime.getRuntime().availableProcessors();
+  }
+
+  // outcomes on random terrains depend on the state of the random generator, hence they are never cached
+  private void setupFitnessCache(String dir, int size) {
+    if (dir.isEmpty()) {
+      return;
+    }
+    if (terrain.contains("-rnd")) {
+      L.warning(String.format("Terrain %s is not deterministic, fitness cache %s not used", terrain, dir));
+      return;
+    }
+    fitnessCache = new FitnessCache(dir, size);
+    L.info(String.format("Using fitness cache %s with %d of at most %d entries", dir, fitnessCache.size(), size));
+  }
+
   private void evolve() throws FileNotFoundException {
     Grid<? extends SensingVoxel> body = AbstractPartiallyDistributedMapper.buildSensingGrid(sensorConfig).apply(RobotUtils.buildShape(shape));
     Function<List<Double>, Robot<?>> mapper = AbstractPartiallyDistributedMapper.mapperFactory(exp, body, config);
-    IndependentFactory<List<Double>> factory = (!isFineTuning) ? new FixedLengthListFactory<>(((GenotypeSized) mapper).getGenotypeSize(), new UniformDoubleFactory(-1.0D, 1.0D)) :
-            new ModuleIndependentFactory(new FixedLengthListFactory<>(((SelfAttentionPartiallyDistributedMapper) mapper).getValuesAndDownstreamSizeForVoxel(), new UniformDoubleFactory(-1.0D, 1.0D)), getAttentionToFineTune(bestFileName, shape, seed), body);
+    if (mapper instanceof AbstractPartiallyDistributedMapper) {
+      ((AbstractPartiallyDistributedMapper<?>) mapper).setParallelEvaluation(voxelPool, voxelThreshold);
+    }
+    IndependentFactory<List<Double>> factory = (!isFineTuning) ? new DoubleGenotypeFactory(((GenotypeSized) mapper).getGenotypeSize(), -1.0D, 1.0D) :
+            new ModuleIndependentFactory(new DoubleGenotypeFactory(((SelfAttentionPartiallyDistributedMapper) mapper).getValuesAndDownstreamSizeForVoxel(), -1.0D, 1.0D), getAttentionToFineTune(bestFileName, shape, seed), body);
     Function<Robot<?>, Outcome> trainingTask = buildLocomotionTask(transformation, new Random(seed));
 
     try {
       Stopwatch stopwatch = Stopwatch.createStarted();
       L.info(String.format("Starting %s", bestFileName));
-      Collection<Robot<?>> solutions = this.evolveGA(factory, mapper, trainingTask, (!isFineTuning) ? Map.of(new GaussianMutation(0.35D), 0.2D, new GeometricCrossover(Range.closed(-0.5D, 1.5D)).andThen(new GaussianMutation(0.1D)), 0.8D) : Map.of(new ModuleGaussianMutation(0.35D, ((SelfAttentionPartiallyDistributedMapper) mapper).getAttentionSizeForVoxel()), 0.2D, new ModuleCrossover(-0.5D, 1.5D, 0.1D, ((SelfAttentionPartiallyDistributedMapper) mapper).getAttentionSizeForVoxel()), 0.8D));
+      // insertion ordered, as operators are picked by iterating the map, so that runs are reproducible
+      int nOfFrozen = (!isFineTuning) ? 0 : ((SelfAttentionPartiallyDistributedMapper) mapper).getAttentionSizeForVoxel();
+      Map<GeneticOperator<List<Double>>, Double> operatorMap = new LinkedHashMap<>();
+      operatorMap.put(new ModuleGaussianMutation(0.35D, nOfFrozen), 0.2D);
+      operatorMap.put(new ModuleCrossover(-0.5D, 1.5D, 0.1D, nOfFrozen), 0.8D);
+      Collection<LazyRobot> solutions = this.evolveGA(factory, new RobotPool(mapper, body), trainingTask, operatorMap);
       L.info(String.format("Done %s: %d solutions in %4ds", bestFileName, solutions.size(), stopwatch.elapsed(TimeUnit.SECONDS)));
     }
     catch (ExecutionException | InterruptedException e) {
@@ -107,21 +181,93 @@ public class Main extends Worker {
     }
   }
 
-  private Collection<Robot<?>> evolveGA(IndependentFactory<List<Double>> factory, Function<List<Double>, Robot<?>> mapper, Function<Robot<?>, Outcome> trainingTask, Map<GeneticOperator<List<Double>>, Double> operatorMap) throws ExecutionException, InterruptedException {
-    Evolver<List<Double>, Robot<?>, Outcome> evolver = new StandardEvolver<>(mapper, factory, PartialComparator.from(Double.class).reversed().comparing(i -> i.getFitness().getVelocity()), 100, operatorMap, new Tournament(5), new Worst(), 100, true, !terrain.contains("flat"));
-    return evolver.solve(trainingTask, new FitnessEvaluations(nEvals), new Random(seed), this.executorService, createListenerFactory().build());
+  // the population holds lazy handles, robots exist only while being evaluated or logged
+  private Collection<LazyRobot> evolveGA(IndependentFactory<List<Double>> factory, RobotPool pool, Function<Robot<?>, Outcome> trainingTask, Map<GeneticOperator<List<Double>>, Double> operatorMap) throws ExecutionException, InterruptedException {
+    PartialComparator<Individual<List<Double>, LazyRobot, Outcome>> comparator = fidelityComparator(EarlyStopPolicy.rungs(earlyStop)).comparing(Individual::getFitness);
+    // episodes of varying length or number: the budget is the simulated time of nEvals full episodes, cached outcomes included for reproducibility
+    SimulatedTimeBudget budget = (earlyStop.equals("none") && racing.equals("none")) ? null : new SimulatedTimeBudget(nEvals * episodeTime);
+    // raced robots are evaluated on the same terrains, hence their fitness needs no remapping
+    String[] evolverParams = evolverType.split("-");
+    Evolver<List<Double>, LazyRobot, Outcome> evolver = switch (evolverParams[0]) {
+      case "standard" -> new StandardEvolver<>(g -> new LazyRobot(g, pool), factory, comparator, 100, operatorMap, new Tournament(5), new Worst(), 100, true, !terrain.contains("flat") && racing.equals("none"));
+      // as many evaluations running as population threads, with no generation barrier
+      case "steadystate" -> new SteadyStateEvolver<>(g -> new LazyRobot(g, pool), factory, comparator, 100, operatorMap, new Tournament(5), new Worst(), !terrain.contains("flat") && racing.equals("none"), this.getPopulationThreads());
+      // "islands-<islands>-<migration interval>-<migrants>", each island as large as the standard population and with its own
+      // random terrains, i.e., one per genotype, or its own race, so that islands do not contend for one generator and runs are
+      // reproducible
+      case "islands" -> new IslandEvolver<>(g -> new LazyRobot(g, pool), factory, comparator, 100, operatorMap, new Tournament(5), new Worst(), 100, true, !terrain.contains("flat") && racing.equals("none"),
+              Integer.parseInt(evolverParams[1]), Integer.parseInt(evolverParams[2]), Integer.parseInt(evolverParams[3]), this.getPopulationThreads(),
+              (random, executor) -> this.buildIslandEvaluation(budget, random, executor));
+      default -> throw new IllegalArgumentException(String.format("Evolver not known: %s", evolverType));
+    };
+    Function<LazyRobot, Outcome> evaluation = this.buildEvaluation(trainingTask, budget, new Random(seed), this.executorService);
+    if (budget == null) {
+      return evolver.solve(evaluation, new FitnessEvaluations(nEvals), new Random(seed), this.executorService, createListenerFactory().build());
+    }
+    Collection<LazyRobot> solutions = evolver.solve(evaluation, budget, new Random(seed), this.executorService, createListenerFactory().build());
+    L.info(String.format("Simulated %.0fs over a budget of %.0fs", budget.getSpent(), nEvals * episodeTime));
+    return solutions;
+  }
+
+  // evaluation on the training task, or raced on terrains drawn from the given generator with the given threads, then cached
+  // and, with a budget, charged to it
+  private Function<LazyRobot, Outcome> buildEvaluation(Function<Robot<?>, Outcome> trainingTask, SimulatedTimeBudget budget, Random random, ExecutorService executor) {
+    Function<LazyRobot, Outcome> evaluation = r -> r.evaluate(trainingTask);
+    if (!racing.equals("none")) {
+      String[] params = racing.split("-");
+      evaluation = new RacingEvaluator(buildRacingTasks(Integer.parseInt(params[0]), random), Integer.parseInt(params[1]), Double.parseDouble(params[2]), () -> worstVelocity, executor);
+    }
+    if (fitnessCache != null) {
+      // full episodes with early stop policies are sampled every samplingInterval seconds, rather than at every step
+      evaluation = fitnessCache.cached(evaluation, r -> FitnessCache.key(r.getGenotype(), exp, config, shape, sensorConfig, terrain, transformation, episodeTime, earlyStop, samplingInterval, Activations.getMode(), LinearAlgebras.getMode()));
+    }
+    if (budget == null) {
+      return evaluation;
+    }
+    Function<LazyRobot, Outcome> cachedEvaluation = evaluation;
+    return r -> budget.spend(cachedEvaluation.apply(r));
+  }
+
+  // the evaluation of an island: raced on the terrains of the island, or on the terrain drawn from the seed of each genotype
+  private BiFunction<LazyRobot, Long, Outcome> buildIslandEvaluation(SimulatedTimeBudget budget, Random random, ExecutorService executor) {
+    if (!racing.equals("none")) {
+      Function<LazyRobot, Outcome> evaluation = this.buildEvaluation(null, budget, random, executor);
+      return (r, s) -> evaluation.apply(r);
+    }
+    return (r, s) -> this.buildEvaluation(buildLocomotionTask(transformation, new Random(s)), budget, random, executor).apply(r);
+  }
+
+  // the same random terrains for all the robots, so that their races are comparable
+  private static List<Function<Robot<?>, Outcome>> buildRacingTasks(int n, Random random) {
+    List<Function<Robot<?>, Outcome>> tasks = new ArrayList<>();
+    for (int i = 0; i < n; ++i) {
+      tasks.add(buildLocomotionTask(terrain.replace("-rnd", "-" + random.nextInt(10000)), episodeTime, random, physicsSettings, EarlyStopPolicy.parse(earlyStop, samplingInterval, () -> populationVelocity, () -> populationOutcomes))
+              .compose(RobotUtils.buildRobotTransformation(transformation, random)));
+    }
+    return tasks;
   }
 
-  private Listener.Factory<Event<?, ? extends Robot<?>, ? extends Outcome>> createListenerFactory() {
+  // outcomes promoted past more rungs of the successive halving, i.e., to higher fidelities, come first, then the fastest
+  // ones; episodes truncated by the other policies are ranked by velocity with the full ones, rather than by length
+  private static PartialComparator<Outcome> fidelityComparator(double[] rungs) {
+    Comparator<Outcome> comparator = Comparator.comparingInt((Outcome o) -> EarlyStopPolicy.promotions(o, rungs))
+            .thenComparingDouble(Outcome::getVelocity);
+    return (o1, o2) -> {
+      int c = comparator.compare(o1, o2);
+      return (c > 0) ? PartialComparator.PartialComparatorOutcome.BEFORE : ((c < 0) ? PartialComparator.PartialComparatorOutcome.AFTER : PartialComparator.PartialComparatorOutcome.SAME);
+    };
+  }
+
+  private Listener.Factory<Event<?, ? extends LazyRobot, ? extends Outcome>> createListenerFactory() {
     Function<Outcome, Double> fitnessFunction = Outcome::getVelocity;
     // consumers
-    List<NamedFunction<Event<?, ? extends Robot<?>, ? extends Outcome>, ?>> basicFunctions = AuxUtils.basicFunctions();
-    List<NamedFunction<Event<?, ? extends Robot<?>, ? extends Outcome>, ?>> populationFunctions = AuxUtils.populationFunctions(fitnessFunction);
-    List<NamedFunction<Individual<?, ? extends Robot<?>, ? extends Outcome>, ?>> individualFunctions = AuxUtils.individualFunctions(fitnessFunction);
+    List<NamedFunction<Event<?, ? extends LazyRobot, ? extends Outcome>, ?>> basicFunctions = AuxUtils.basicFunctions();
+    List<NamedFunction<Event<?, ? extends LazyRobot, ? extends Outcome>, ?>> populationFunctions = AuxUtils.populationFunctions(fitnessFunction);
+    List<NamedFunction<Individual<?, ? extends LazyRobot, ? extends Outcome>, ?>> individualFunctions = AuxUtils.individualFunctions(fitnessFunction);
     List<NamedFunction<Outcome, ?>> basicOutcomeFunctions = AuxUtils.basicOutcomeFunctions();
     List<NamedFunction<Outcome, ?>> detailedOutcomeFunctions = AuxUtils.detailedOutcomeFunctions(0, frequencyThreshold, nFrequencySamples);
-    // file listener (one best per iteration)
-    return new CSVPrinter<>(Misc.concat(List.of(
+    // file listener (one best per iteration), also keeping track of the population velocities for early stopping and racing
+    Listener.Factory<Event<?, ? extends LazyRobot, ? extends Outcome>> printer = new CSVPrinter<>(Misc.concat(List.of(
             basicFunctions,
             populationFunctions,
             NamedFunction.then(best(), individualFunctions),
@@ -130,13 +276,56 @@ public class Main extends Worker {
             NamedFunction.then(best(), AuxUtils.serializationFunction(true))
     )), new File(bestFileName)
     );
+    return new Listener.Factory<>() {
+      @Override
+      public Listener<Event<?, ? extends LazyRobot, ? extends Outcome>> build() {
+        Listener<Event<?, ? extends LazyRobot, ? extends Outcome>> listener = printer.build();
+        return new Listener<>() {
+          @Override
+          public void listen(Event<?, ? extends LazyRobot, ? extends Outcome> event) {
+            populationVelocity = event.getOrderedPopulation().all().stream().mapToDouble(i -> i.getFitness().getVelocity()).sorted()
+                    .skip(event.getOrderedPopulation().all().size() / 2).findFirst().orElse(Double.NaN);
+            worstVelocity = event.getOrderedPopulation().all().stream().mapToDouble(i -> i.getFitness().getVelocity()).min().orElse(Double.NaN);
+            populationOutcomes = event.getOrderedPopulation().all().stream().map(Individual::getFitness).collect(Collectors.toList());
+            listener.listen(event);
+          }
+
+          @Override
+          public void done() {
+            listener.done();
+          }
+        };
+      }
+
+      @Override
+      public void shutdown() {
+        printer.shutdown();
+      }
+    };
   }
 
   public static Function<Robot<?>, Outcome> buildLocomotionTask(String transformation, Random random) {
-    return buildLocomotionTask(terrain, episodeTime, random, physicsSettings).compose(RobotUtils.buildRobotTransformation(transformation, random));
+    return buildLocomotionTask(terrain, episodeTime, random, physicsSettings, EarlyStopPolicy.parse(earlyStop, samplingInterval, () -> populationVelocity, () -> populationOutcomes)).compose(RobotUtils.buildRobotTransformation(transformation, random));
   }
 
   public static Function<Robot<?>, Outcome> buildLocomotionTask(String terrain, double episodeTime, Random random, Settings physicsSettings) {
+    return buildLocomotionTask(terrain, episodeTime, random, physicsSettings, List.of());
+  }
+
+  // with early stop policies, hopeless episodes are truncated and their outcomes flagged as such
+  public static Function<Robot<?>, Outcome> buildLocomotionTask(String terrain, double episodeTime, Random random, Settings physicsSettings, List<EarlyStopPolicy> policies) {
+    if (!policies.isEmpty()) {
+      if (!terrain.contains("-rnd")) {
+        return new EarlyStoppingLocomotion(episodeTime, Locomotion.createTerrain(terrain), physicsSettings, policies, samplingInterval);
+      }
+      return r -> new EarlyStoppingLocomotion(
+              episodeTime,
+              Locomotion.createTerrain(terrain.replace("-rnd", "-" + random.nextInt(10000))),
+              physicsSettings,
+              policies,
+              samplingInterval
+      ).apply(r);
+    }
     if (!terrain.contains("-rnd")) {
       return Misc.cached(new Locomotion(
               episodeTime,
@@ -1,37 +1,37 @@
 package world.units.erallab;
 
-import com.google.common.collect.Range;
 import it.units.malelab.jgea.core.operator.Crossover;
-import it.units.malelab.jgea.core.operator.Mutation;
-import it.units.malelab.jgea.representation.sequence.numeric.GaussianMutation;
-import it.units.malelab.jgea.representation.sequence.numeric.GeometricCrossover;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 
 
 public class ModuleCrossover implements Crossover<List<Double>> {
 
-  private final Crossover<List<Double>> innerCrossover;
-  private final Mutation<List<Double>> innerMutation;
+  private final double lower;
+  private final double upper;
+  private final double sigma;
   private final int numAttention;
 
   public ModuleCrossover(double lower, double upper, double sigma, int numAttention) {
-    this.innerCrossover = new GeometricCrossover(Range.closed(lower, upper));
-    this.innerMutation = new GaussianMutation(sigma);
+    this.lower = lower;
+    this.upper = upper;
+    this.sigma = sigma;
     this.numAttention = numAttention;
   }
 
   @Override
   public List<Double> recombine(List<Double> parent1, List<Double> parent2, Random random) {
-    List<Double> newBorn = new ArrayList<>();
-    for (int i = 0; i < numAttention; ++i) {
-      newBorn.add(parent1.get(i));
+    double[] values1 = DoubleGenotype.of(parent1).values();
+    double[] values2 = DoubleGenotype.of(parent2).values();
+    double[] newBorn = new double[values1.length];
+    System.arraycopy(values1, 0, newBorn, 0, this.numAttention);
+    for (int i = this.numAttention; i < newBorn.length; ++i) {
+      double alpha = this.lower + random.nextDouble() * (this.upper - this.lower);
+      newBorn[i] = values1[i] + alpha * (values2[i] - values1[i]);
     }
-    newBorn.addAll(this.innerMutation.mutate(this.innerCrossover.recombine(parent1.subList(this.numAttention, parent1.size()),
-            parent2.subList(this.numAttention, parent2.size()), random), random));
-    return newBorn;
+    ModuleGaussianMutation.mutate(newBorn, this.numAttention, newBorn.length, this.sigma, random);
+    return new DoubleGenotype(newBorn);
   }
 
 }
@@ -6,7 +6,6 @@ import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.util.Grid;
 import it.units.malelab.jgea.core.IndependentFactory;
 
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Random;
@@ -26,22 +25,21 @@ public class ModuleIndependentFactory implements IndependentFactory<List<Double>
 
   @Override
   public List<Double> build(Random random) {
-    List<Double> newBorn = new ArrayList<>();
-    List<Double> newGenes = this.innerFactory.build(random);
+    double[] newGenes = DoubleGenotype.of(this.innerFactory.build(random)).values();
     SelfAttention attention = ((SelfAttention) ((PartiallyDistributedSensing) ((StepController) prototype.getController()).getInnerController()).getFunctions().get(0, 0));
-    int k = 0;
+    double[] matrices = attention.getQueriesAndKeysMatrices();
+    double[] bias = attention.getQueriesAndKeysBias();
     int nVoxelsBody = (int) body.count(Objects::nonNull);
-    for (int i = 0; i < 16; ++i) {
-      newBorn.add(attention.getQueriesAndKeysMatrices()[i]);
-    }
-    for (int i = 0; i < nVoxelsBody * 8; ++i) {
-      newBorn.add(newGenes.get(k++));
-    }
-    for (int i = 0; i < 16; ++i) {
-      newBorn.add(attention.getQueriesAndKeysBias()[i]);
-    }
-    newBorn.addAll(newGenes.subList(k, newGenes.size()));
-    return newBorn;
+    double[] newBorn = new double[16 + 16 + newGenes.length];
+    int s = 0;
+    System.arraycopy(matrices, 0, newBorn, s, 16);
+    s = s + 16;
+    System.arraycopy(newGenes, 0, newBorn, s, nVoxelsBody * 8);
+    s = s + nVoxelsBody * 8;
+    System.arraycopy(bias, 0, newBorn, s, 16);
+    s = s + 16;
+    System.arraycopy(newGenes, nVoxelsBody * 8, newBorn, s, newGenes.length - nVoxelsBody * 8);
+    return new DoubleGenotype(newBorn);
   }
 
 }
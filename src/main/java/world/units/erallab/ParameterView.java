@@ -0,0 +1,64 @@
+package world.units.erallab;
+
+import java.util.Arrays;
+import java.util.List;
+
+
+// a window of (offset, length) over a contiguous array of parameters: controllers read their weights from it in place
+public class ParameterView {
+
+  private final double[] params;
+  private final int offset;
+  private final int length;
+
+  public ParameterView(double[] params, int offset, int length) {
+    if (offset < 0 || length < 0 || offset + length > params.length) {
+      throw new IllegalArgumentException(String.format("Window [%d,%d) out of array of size %d", offset, offset + length, params.length));
+    }
+    this.params = params;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  public static ParameterView of(double[] params) {
+    return new ParameterView(params, 0, params.length);
+  }
+
+  public static ParameterView of(List<Double> params) {
+    if (params instanceof DoubleGenotype) {
+      return of(((DoubleGenotype) params).values());
+    }
+    double[] values = new double[params.size()];
+    int i = 0;
+    for (double d : params) {
+      values[i++] = d;
+    }
+    return of(values);
+  }
+
+  public ParameterView slice(int from, int length) {
+    if (from < 0 || from + length > this.length) {
+      throw new IllegalArgumentException(String.format("Slice [%d,%d) out of view of size %d", from, from + length, this.length));
+    }
+    return new ParameterView(this.params, this.offset + from, length);
+  }
+
+  public ParameterView skip(int from) {
+    return this.slice(from, this.length - from);
+  }
+
+  public double get(int i) {
+    return this.params[this.offset + i];
+  }
+
+  public void copyTo(int from, double[] dest, int destOffset, int length) {
+    System.arraycopy(this.params, this.offset + from, dest, destOffset, length);
+  }
+
+  public double[] toArray() {
+    return Arrays.copyOfRange(this.params, this.offset, this.offset + this.length);
+  }
+
+  public int length() { return this.length; }
+
+}
@@ -23,14 +23,16 @@ import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.util.Grid;
-import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.math3.util.Pair;
 import world.units.erallab.mappers.AbstractPartiallyDistributedMapper;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
+import java.util.stream.IntStream;
 
 /**
  * @author federico
@@ -73,16 +75,42 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
 
   private final BiFunction<Pair<Integer, Integer>, Grid<? extends SensingVoxel>, List<Pair<Integer, Integer>>> neighborhood;
 
-  private final Grid<double[]> lastSignalsGrid;
-
-  private final Grid<double[]> currSignalsGrid;
+  // flat signals, one block of 'signals' values per grid cell plus a trailing block, always zero, for out-of-body neighbors;
+  // the two buffers are swapped at the end of every step
+  private double[] lastSignals;
+  private double[] currSignals;
+
+  // neighborhood compiled in CSR form: the neighbors of cell c are neighborCells[neighborOffsets[c]..neighborOffsets[c + 1])
+  private int[] neighborOffsets;
+  private int[] neighborCells;
+  // voxels in grid iteration order, with their preallocated input (and positional encoding) buffers
+  private int nVoxels;
+  private int[] voxelXs;
+  private int[] voxelYs;
+  private double[][] inputBuffers;
+  private double[][] encodingBuffers;
+
+  // functions sharing the same weights can be evaluated in a single batched call
+  private boolean batched;
+  private SelfAttention[] batchFunctions;
+  private int[] batchSlots;
+  private double[] batchOutputs;
+  // recurrent controller with one hidden state row per voxel, evaluated in place of the functions when present
+  @JsonProperty
+  private BatchedRecurrentNeuralNetwork recurrent;
 
+  private final double[] outputs;
+  private final double[] zeroOutputs;
   private final Grid<Double> outputGrid;
   private static final int nMessageBins = 25;
   private int[] nMessages;
   private double lastT = Double.NEGATIVE_INFINITY;
   private int downsamplingScale;
   private Grid<Boolean> originalVoxels;
+  // opt-in intra-step parallelism, set by the mapper building the controller, the pool being possibly shared with other
+  // controllers; bodies with fewer voxels than the threshold stay sequential
+  private ForkJoinPool parallelPool;
+  private int parallelThreshold = Integer.MAX_VALUE;
 
   public static int inputs(SensingVoxel voxel, int nNeighbors) {
     return nNeighbors + voxel.getSensors().stream().mapToInt(s -> s.getDomains().length).sum();
@@ -98,8 +126,10 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
     this.signals = signals;
     this.nOfInputGrid = nOfInputGrid;
     this.functions = functions;
-    this.lastSignalsGrid = Grid.create(functions, f -> new double[signals]);
-    this.currSignalsGrid = Grid.create(functions, f -> new double[signals]);
+    this.lastSignals = new double[(functions.getW() * functions.getH() + 1) * signals];
+    this.currSignals = new double[(functions.getW() * functions.getH() + 1) * signals];
+    this.outputs = new double[functions.getW() * functions.getH()];
+    this.zeroOutputs = new double[signals + 1];
     this.config = config;
     this.neighborhood = AbstractPartiallyDistributedMapper.getNeighborhood(config);
     this.outputGrid = Grid.create(functions, f -> 0.0);
@@ -124,6 +154,23 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
     );
   }
 
+  public void setParallelEvaluation(ForkJoinPool pool, int threshold) {
+    this.parallelPool = pool;
+    this.parallelThreshold = threshold;
+  }
+
+  public void setBatched(boolean batched) {
+    this.batched = batched;
+  }
+
+  public void setRecurrent(BatchedRecurrentNeuralNetwork recurrent) {
+    this.recurrent = recurrent;
+  }
+
+  public BatchedRecurrentNeuralNetwork getRecurrent() {
+    return this.recurrent;
+  }
+
   public void setDownsamplingParams(int downsamplingScale, Grid<Boolean> originalVoxels) {
     this.downsamplingScale = downsamplingScale;
     this.originalVoxels = originalVoxels;
@@ -138,26 +185,22 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
   }
 
   public Grid<double[]> getLastSignalsGrid() {
-    return this.lastSignalsGrid;
+    return Grid.create(this.functions.getW(), this.functions.getH(), (x, y) -> Arrays.copyOfRange(this.lastSignals, this.cell(x, y) * this.signals, (this.cell(x, y) + 1) * this.signals));
   }
 
   @Override
   public void reset() {
-    for (int x = 0; x < this.lastSignalsGrid.getW(); x++) {
-      for (int y = 0; y < this.lastSignalsGrid.getH(); y++) {
-        this.lastSignalsGrid.set(x, y, new double[this.nOfOutputs(x, y) - 1]);
-      }
-    }
-    for (int x = 0; x < this.currSignalsGrid.getW(); x++) {
-      for (int y = 0; y < this.currSignalsGrid.getH(); y++) {
-        this.currSignalsGrid.set(x, y, new double[this.nOfOutputs(x, y) - 1]);
-      }
-    }
+    Arrays.fill(this.lastSignals, 0.0);
+    Arrays.fill(this.currSignals, 0.0);
+    Arrays.fill(this.outputs, 0.0);
     this.functions.values().stream().filter(Objects::nonNull).forEach(f -> {
       if (f instanceof Resettable) {
         ((Resettable) f).reset();
       }
     });
+    if (this.recurrent != null) {
+      this.recurrent.reset();
+    }
     for (int x = 0; x < this.outputGrid.getW(); x++) {
       for (int y = 0; y < this.outputGrid.getH(); y++) {
         this.outputGrid.set(x, y, 0.0);
@@ -168,56 +211,103 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
 
   @Override
   public Grid<Double> computeControlSignals(double t, Grid<? extends SensingVoxel> voxels) {
+    double[] outputs = this.computeOutputs(t, voxels);
+    for (int i = 0; i < this.nVoxels; ++i) {
+      this.outputGrid.set(this.voxelXs[i], this.voxelYs[i], outputs[this.cell(this.voxelXs[i], this.voxelYs[i])]);
+    }
+    return this.outputGrid;
+  }
+
+  // primitive counterpart of computeControlSignals: returns the outputs indexed by cell, i.e., y * w + x
+  public double[] computeOutputs(double t, Grid<? extends SensingVoxel> voxels) {
     //else if (t - this.lastT < 0.33) {
     //  return this.outputGrid;
     //}
-    int centerOfMassX = (int) Math.ceil((double) voxels.getW() / 2);
-    int centerOfMassY = (int) Math.ceil((double) voxels.getH() / 2);
-    double maxDistance = Math.abs(centerOfMassX) + Math.abs(centerOfMassY);
-    int i = 0;
-    int nVoxels = (int) voxels.count(Objects::nonNull);
-    for (Grid.Entry<? extends SensingVoxel> entry : voxels) {
-      if (entry.getValue() == null) {
-        continue;
-      }
+    if (this.neighborOffsets == null) {
+      this.compileNeighborhood(voxels);
+    }
+    for (int i = 0; i < this.nVoxels; ++i) {
+      int x = this.voxelXs[i];
+      int y = this.voxelYs[i];
       //get inputs
-      double[] signals = this.getLastSignals(entry.getX(), entry.getY(), voxels);
-      this.updateBins(signals);
-      double[] inputs = entry.getValue().getSensorReadings();
-      inputs = ArrayUtils.addAll(inputs, signals);
-      //inputs = ArrayUtils.add(inputs, (Math.abs(entry.getX() - centerOfMassX) + Math.abs(entry.getY() - centerOfMassY)) / maxDistance);
-      //compute outputs
-      TimedRealFunction function = this.functions.get(entry.getX(), entry.getY());
-      //if (function instanceof SelfAttention) {
-      //  ((SelfAttention) function).setId(i);
-      //}
+      double[] readings = voxels.get(x, y).getSensorReadings();
+      double[] inputs = this.inputBuffers[i];
+      System.arraycopy(readings, 0, inputs, 0, readings.length);
+      this.gatherLastSignals(this.cell(x, y), inputs, readings.length);
+      this.updateBins(inputs, readings.length, inputs.length);
+      //inputs = ArrayUtils.add(inputs, (Math.abs(x - centerOfMassX) + Math.abs(y - centerOfMassY)) / maxDistance);
+    }
+    if (this.recurrent != null) {
+      this.recurrent.apply(t, this.inputBuffers, this.batchOutputs);
+      this.scatterBatchOutputs();
+    }
+    else if (this.batchFunctions != null) {
+      SelfAttention.applyBatch(this.batchFunctions, this.batchSlots, this.inputBuffers, this.batchOutputs);
+      this.scatterBatchOutputs();
+    }
+    // voxels only read last-step signals and each one owns its function, even when sharing weights, hence they can be evaluated independently
+    else if (this.parallelPool != null && this.nVoxels >= this.parallelThreshold) {
+      this.parallelPool.submit(() -> IntStream.range(0, this.nVoxels).parallel().forEach(i -> this.evaluateVoxel(t, i, voxels.getW(), voxels.getH()))).join();
+    }
+    else {
+      for (int i = 0; i < this.nVoxels; ++i) {
+        this.evaluateVoxel(t, i, voxels.getW(), voxels.getH());
+      }
+    }
+    double[] swap = this.lastSignals;
+    this.lastSignals = this.currSignals;
+    this.currSignals = swap;
+    this.lastT = t;
+    return this.outputs;
+  }
+
+  public double[] getOutputs() {
+    return this.outputs;
+  }
+
+  private void scatterBatchOutputs() {
+    int nOfOutputs = this.signals + 1;
+    for (int i = 0; i < this.nVoxels; ++i) {
+      int cell = this.cell(this.voxelXs[i], this.voxelYs[i]);
+      this.outputs[cell] = this.batchOutputs[i * nOfOutputs];
+      System.arraycopy(this.batchOutputs, i * nOfOutputs + 1, this.currSignals, cell * this.signals, this.signals);
+    }
+  }
+
+  private void evaluateVoxel(double t, int i, int w, int h) {
+    int x = this.voxelXs[i];
+    int y = this.voxelYs[i];
+    int cell = this.cell(x, y);
+    double[] inputs = this.inputBuffers[i];
+    //compute outputs
+    TimedRealFunction function = this.functions.get(x, y);
+    double[] outputs;
+    if (function instanceof SlottedFunction) {
+      int slot = (this.downsamplingScale == 1) ? i : nearestSlot((double) x / (w - 1), (double) y / (h - 1), this.originalVoxels);
+      outputs = ((SlottedFunction) function).apply(slot, inputs);
+    }
+    else if (function != null) {
       double[] processedInputs;
       if (this.downsamplingScale == 1) {
-        processedInputs = positionalEncoding(inputs, nVoxels, i++);
+        processedInputs = positionalEncoding(inputs, this.nVoxels, i, this.encodingBuffers[i]);
       }
       else {
-        processedInputs = sampleGeom(inputs, (double) entry.getX() / (voxels.getW() - 1), (double) entry.getY() / (voxels.getH() - 1), this.originalVoxels);//downsample(positionalEncoding(inputs, nVoxels, i++), nVoxels, this.originalVoxels, this.downsamplingScale);
+        processedInputs = sampleGeom(inputs, (double) x / (w - 1), (double) y / (h - 1), this.originalVoxels);//downsample(positionalEncoding(inputs, nVoxels, i++), nVoxels, this.originalVoxels, this.downsamplingScale);
       }
-      double[] outputs = function != null ? function.apply(t, processedInputs) : new double[this.nOfOutputs(entry.getX(), entry.getY())];
-      //apply outputs
-      this.outputGrid.set(entry.getX(), entry.getY(), outputs[0]);
-      System.arraycopy(outputs, 1, this.currSignalsGrid.get(entry.getX(), entry.getY()), 0, this.nOfOutputs(entry.getX(), entry.getY()) - 1);
+      outputs = function.apply(t, processedInputs);
     }
-    for (Grid.Entry<? extends SensingVoxel>  entry : voxels) {
-      if (entry.getValue() == null) {
-        continue;
-      }
-      int x = entry.getX();
-      int y = entry.getY();
-      System.arraycopy(this.currSignalsGrid.get(x, y), 0,  this.lastSignalsGrid.get(x, y), 0, this.nOfOutputs(x, y) - 1);
+    else {
+      outputs = this.zeroOutputs;
     }
-    this.lastT = t;
-    return this.outputGrid;
+    //apply outputs
+    this.outputs[cell] = outputs[0];
+    System.arraycopy(outputs, 1, this.currSignals, cell * this.signals, this.nOfOutputs(x, y) - 1);
   }
 
-  private void updateBins(double[] signals) {
+  private void updateBins(double[] signals, int from, int to) {
     double step = 2.0 / nMessageBins;
-    for (double signal : signals) {
+    for (int j = from; j < to; ++j) {
+      double signal = signals[j];
       for (int i = 1; i <= nMessageBins; ++i) {
         if (signal <= (step * i) - 1.0) {
           this.nMessages[i - 1] += 1;
@@ -227,6 +317,19 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
     }
   }
 
+  // fraction of the attention evaluations served by a previously computed attention, -1 without attention
+  public double getAttentionHitRate() {
+    long hits = 0;
+    long total = 0;
+    for (TimedRealFunction function : this.functions.values()) {
+      if (function instanceof RefreshedFunction) {
+        hits += ((RefreshedFunction) function).getHits();
+        total += ((RefreshedFunction) function).getHits() + ((RefreshedFunction) function).getMisses();
+      }
+    }
+    return (total == 0) ? -1.0 : (double) hits / total;
+  }
+
   public double getUniformity() {
     double l2 = 0.0;
     int sum = Arrays.stream(this.nMessages).sum();
@@ -237,7 +340,10 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
   }
 
   public static double[] positionalEncoding(double[] inputs, int n, int i) {
-    double[] pos = new double[n * inputs.length];
+    return positionalEncoding(inputs, n, i, new double[n * inputs.length]);
+  }
+
+  public static double[] positionalEncoding(double[] inputs, int n, int i, double[] pos) {
     for (int j = 0; j < n; ++j) {
       for (int k = 0; k < inputs.length; ++k) {
         pos[j * inputs.length + k] = (i == j) ? inputs[k] : 0.0;
@@ -286,6 +392,10 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
   }
 
   private static double[] sampleGeom(double[] inputs, double x, double y, Grid<Boolean> body) {
+    return positionalEncoding(inputs, (int) body.count(b -> b), nearestSlot(x, y, body));
+  }
+
+  private static int nearestSlot(double x, double y, Grid<Boolean> body) {
     int newId = -1;
     int k = 0;
     double minDist = Double.POSITIVE_INFINITY;
@@ -302,7 +412,7 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
       }
       ++k;
     }
-    return positionalEncoding(inputs, (int) body.count(b -> b), newId);
+    return newId;
   }
 
   public int nOfInputs(int x, int y) {
@@ -313,27 +423,86 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
     return this.signals + 1;
   }
 
-  private double[] getLastSignals(int x, int y, Grid<? extends SensingVoxel> voxels) {
-    List<Pair<Integer, Integer>> neighbors = this.neighborhood.apply(new Pair<>(x, y), voxels);
-    double[] values = new double[neighbors.size()];
-    if (this.signals <= 0) {
-      return values;
+  private int cell(int x, int y) {
+    return y * this.functions.getW() + x;
+  }
+
+  private void compileNeighborhood(Grid<? extends SensingVoxel> voxels) {
+    int nCells = voxels.getW() * voxels.getH();
+    List<List<Pair<Integer, Integer>>> neighbors = new ArrayList<>(nCells);
+    this.neighborOffsets = new int[nCells + 1];
+    for (int y = 0; y < voxels.getH(); ++y) {
+      for (int x = 0; x < voxels.getW(); ++x) {
+        List<Pair<Integer, Integer>> cellNeighbors = (voxels.get(x, y) == null) ? List.of() : this.neighborhood.apply(new Pair<>(x, y), voxels);
+        neighbors.add(cellNeighbors);
+        this.neighborOffsets[this.cell(x, y) + 1] = this.neighborOffsets[this.cell(x, y)] + cellNeighbors.size();
+      }
     }
+    this.neighborCells = new int[this.neighborOffsets[nCells]];
     int c = 0;
-    for (Pair<Integer, Integer> entry : neighbors) {
-      int adjacentX = entry.getFirst();
-      int adjacentY = entry.getSecond();
-      double[] lastSignals;
-      if (adjacentX < 0 || adjacentX >= voxels.getW() || adjacentY < 0 || adjacentY >= voxels.getH() || voxels.get(adjacentX, adjacentY) == null) {
-        lastSignals = new double[this.nOfOutputs(x, y) - 1];
+    for (int i = 0; i < nCells; ++i) {
+      for (Pair<Integer, Integer> entry : neighbors.get(i)) {
+        int adjacentX = entry.getFirst();
+        int adjacentY = entry.getSecond();
+        if (adjacentX < 0 || adjacentX >= voxels.getW() || adjacentY < 0 || adjacentY >= voxels.getH() || voxels.get(adjacentX, adjacentY) == null) {
+          this.neighborCells[c++] = nCells;
+        }
+        else {
+          this.neighborCells[c++] = this.cell(adjacentX, adjacentY);
+        }
       }
-      else {
-        lastSignals = this.lastSignalsGrid.get(adjacentX, adjacentY);
+    }
+    this.nVoxels = (int) voxels.count(Objects::nonNull);
+    this.voxelXs = new int[this.nVoxels];
+    this.voxelYs = new int[this.nVoxels];
+    this.inputBuffers = new double[this.nVoxels][];
+    this.encodingBuffers = new double[this.nVoxels][];
+    int i = 0;
+    for (Grid.Entry<? extends SensingVoxel> entry : voxels) {
+      if (entry.getValue() == null) {
+        continue;
       }
-      System.arraycopy(lastSignals, 0, values, c, this.signals);
+      int cell = this.cell(entry.getX(), entry.getY());
+      int nInputs = entry.getValue().getSensorReadings().length + (this.neighborOffsets[cell + 1] - this.neighborOffsets[cell]) * Math.max(this.signals, 1);
+      this.voxelXs[i] = entry.getX();
+      this.voxelYs[i] = entry.getY();
+      this.inputBuffers[i] = new double[nInputs];
+      this.encodingBuffers[i] = new double[this.nVoxels * nInputs];
+      ++i;
+    }
+    if (this.recurrent != null) {
+      if (this.nVoxels > 0 && this.inputBuffers[0].length != this.recurrent.getInputDimension()) {
+        throw new IllegalArgumentException(String.format("Recurrent controller expects %d inputs, voxels provide %d", this.recurrent.getInputDimension(), this.inputBuffers[0].length));
+      }
+      this.batchOutputs = new double[this.nVoxels * (this.signals + 1)];
+    }
+    else if (this.batched && this.downsamplingScale == 1) {
+      this.compileBatch();
+    }
+  }
+
+  private void compileBatch() {
+    SelfAttention[] functions = new SelfAttention[this.nVoxels];
+    for (int i = 0; i < this.nVoxels; ++i) {
+      TimedRealFunction function = this.functions.get(this.voxelXs[i], this.voxelYs[i]);
+      if (!(function instanceof SelfAttention) || !((SelfAttention) function).isBatchable() || (i > 0 && !functions[0].sharesWeightsWith((SelfAttention) function))) {
+        return;
+      }
+      functions[i] = (SelfAttention) function;
+    }
+    this.batchFunctions = functions;
+    this.batchSlots = IntStream.range(0, this.nVoxels).toArray();
+    this.batchOutputs = new double[this.nVoxels * (this.signals + 1)];
+  }
+
+  private void gatherLastSignals(int cell, double[] values, int c) {
+    if (this.signals <= 0) {
+      return;
+    }
+    for (int i = this.neighborOffsets[cell]; i < this.neighborOffsets[cell + 1]; ++i) {
+      System.arraycopy(this.lastSignals, this.neighborCells[i] * this.signals, values, c, this.signals);
       c = c + this.signals;
     }
-    return values;
   }
 
   @Override
@@ -346,7 +515,7 @@ public class PartiallyDistributedSensing extends AbstractController<SensingVoxel
 
   @Override
   public Snapshot getSnapshot() {
-    return new Snapshot(new DistributedSensingShape(this.functions, this.lastSignalsGrid), this.getClass());
+    return new Snapshot(new DistributedSensingShape(this.functions, this.getLastSignalsGrid()), this.getClass());
   }
 
 }
\ No newline at end of file
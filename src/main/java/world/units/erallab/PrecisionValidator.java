@@ -0,0 +1,78 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import org.dyn4j.dynamics.Settings;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.Random;
+import java.util.function.UnaryOperator;
+
+
+// accuracy versus throughput of the reduced precision controllers: every best individual of the standard shapes is validated
+// on the terrains of SurrogateValidator in double precision, narrowed to float32 and quantized to int8, with the same random
+// seed; centralized and batched recurrent controllers are not converted, recurrent ones are not quantized
+public class PrecisionValidator {
+
+  private static final String[] precisions = {"double", "float32", "int8"};
+  private static final String[] header = {"validation.terrain", "validation.seed", "validation.precision", "outcome.computation.time",
+          "outcome.velocity", "velocity.drift", "\n"};
+  private static final String dir = System.getProperty("user.dir") + "/output/";
+
+  public static void main(String[] args) throws IOException {
+    for (File file : Objects.requireNonNull(new File(dir).listFiles())) {
+      if (file.getPath().contains("best") && (file.getPath().contains("4x3") || file.getPath().contains("7x2")) && !(file.getPath().contains("centralized") || file.getPath().contains(".rnn.partially"))) {
+        System.out.println(file.getPath());
+        validateAndWriteOnFile(file);
+      }
+    }
+  }
+
+  private static void validateAndWriteOnFile(File file) throws IOException {
+    String precisionFile = file.getPath().replace("best", "precision");
+    boolean exists = new File(precisionFile).exists();
+    BufferedWriter writer = new BufferedWriter(new FileWriter(precisionFile, true));
+    if (!exists) {
+      writer.write(String.join(";", header));
+    }
+    String path = file.getPath().split("/")[file.getPath().split("/").length - 1];
+    int seed = Integer.parseInt(path.split("\\.")[2]);
+    boolean isRecurrent = file.getPath().contains(".rnn.");
+    for (String terrain : SurrogateValidator.terrains) {
+      double reference = Double.NaN;
+      for (String precision : precisions) {
+        if (isRecurrent && precision.equals("int8")) {
+          continue;
+        }
+        Outcome outcome = validate(file, terrain, seed, getConversion(precision));
+        if (precision.equals("double")) {
+          reference = outcome.getVelocity();
+        }
+        writer.write(String.join(";", terrain, String.valueOf(seed), precision, String.valueOf(outcome.getComputationTime()),
+                String.valueOf(outcome.getVelocity()), String.valueOf(outcome.getVelocity() - reference), "\n"));
+      }
+    }
+    writer.close();
+  }
+
+  private static UnaryOperator<Robot<?>> getConversion(String precision) {
+    return switch (precision) {
+      case "double" -> r -> r;
+      case "float32" -> Float32::narrow;
+      case "int8" -> Int8::quantize;
+      default -> throw new IllegalArgumentException(String.format("Precision not known: %s", precision));
+    };
+  }
+
+  // every precision reads the same sequence of random numbers
+  private static Outcome validate(File file, String terrain, int seed, UnaryOperator<Robot<?>> conversion) {
+    Random random = new Random(seed);
+    Robot<?> robot = conversion.apply(SurrogateValidator.parseIndividualFromFile(file.getPath(), random, -1));
+    return Main.buildLocomotionTask(terrain, 30.0, random, new Settings()).apply(robot);
+  }
+
+}
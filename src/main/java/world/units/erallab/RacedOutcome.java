@@ -0,0 +1,36 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+
+import java.util.List;
+
+
+// outcome of a race over several terrains: velocity is the mean one, the simulated time charged by SimulatedTimeBudget is the
+// sum over the terrains, everything else, i.e., the observations, hence the episode length, the spectra and the posture, is
+// taken from the first terrain, which all the raced robots share
+public class RacedOutcome extends Outcome {
+
+  private final List<Outcome> outcomes;
+  private final boolean isDropped;
+
+  public RacedOutcome(List<Outcome> outcomes, boolean isDropped) {
+    super(outcomes.get(0).getObservations());
+    this.outcomes = outcomes;
+    this.isDropped = isDropped;
+  }
+
+  public List<Outcome> getOutcomes() {
+    return this.outcomes;
+  }
+
+  // dropped before running on all the terrains, as it could not beat the reference
+  public boolean isDropped() {
+    return this.isDropped;
+  }
+
+  @Override
+  public double getVelocity() {
+    return this.outcomes.stream().mapToDouble(Outcome::getVelocity).average().orElse(Double.NaN);
+  }
+
+}
@@ -0,0 +1,73 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+
+// evaluates a robot on a growing prefix of a fixed list of tasks, e.g., the same terrains for all the robots, some tasks per
+// round, and drops it as soon as the upper confidence bound of its mean velocity is below the reference, e.g., the worst
+// velocity kept in the population; the tasks of a round run concurrently, hence the controller statistics of the robot are
+// set once, after the race, as the mean over the tasks
+public class RacingEvaluator implements Function<LazyRobot, Outcome> {
+
+  private final List<Function<Robot<?>, Outcome>> tasks;
+  private final int roundSize;
+  private final double z;
+  private final DoubleSupplier reference;
+  private final ExecutorService executor;
+
+  public RacingEvaluator(List<Function<Robot<?>, Outcome>> tasks, int roundSize, double z, DoubleSupplier reference, ExecutorService executor) {
+    this.tasks = tasks;
+    this.roundSize = roundSize;
+    this.z = z;
+    this.reference = reference;
+    this.executor = executor;
+  }
+
+  @Override
+  public Outcome apply(LazyRobot robot) {
+    List<Outcome> outcomes = new ArrayList<>();
+    List<double[]> statistics = new ArrayList<>();
+    while (outcomes.size() < this.tasks.size()) {
+      List<FutureTask<Outcome>> round = new ArrayList<>();
+      for (Function<Robot<?>, Outcome> task : this.tasks.subList(outcomes.size(), Math.min(outcomes.size() + this.roundSize, this.tasks.size()))) {
+        double[] taskStatistics = new double[]{-1.0, -1.0};
+        statistics.add(taskStatistics);
+        round.add(new FutureTask<>(() -> robot.evaluate(task, taskStatistics)));
+      }
+      round.forEach(this.executor::execute);
+      try {
+        for (FutureTask<Outcome> task : round) {
+          // runs here the tasks no worker took yet, e.g., when all of them are racing too
+          task.run();
+          outcomes.add(task.get());
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        throw new RuntimeException(String.format("Cannot race robot: %s", e));
+      }
+      if (outcomes.size() < this.tasks.size() && this.upperBound(outcomes) < this.reference.getAsDouble()) {
+        break;
+      }
+    }
+    robot.setStatistics(statistics.stream().mapToDouble(s -> s[0]).average().orElse(-1.0), statistics.stream().mapToDouble(s -> s[1]).average().orElse(-1.0));
+    return new RacedOutcome(outcomes, outcomes.size() < this.tasks.size());
+  }
+
+  private double upperBound(List<Outcome> outcomes) {
+    int n = outcomes.size();
+    if (n < 2) {
+      return Double.POSITIVE_INFINITY;
+    }
+    double mean = outcomes.stream().mapToDouble(Outcome::getVelocity).average().orElse(Double.NaN);
+    double variance = outcomes.stream().mapToDouble(o -> (o.getVelocity() - mean) * (o.getVelocity() - mean)).sum() / (n - 1);
+    return mean + this.z * Math.sqrt(variance / n);
+  }
+
+}
@@ -3,6 +3,7 @@ package world.units.erallab;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.Resettable;
 import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
 import it.units.erallab.hmsrobots.core.snapshots.MLPState;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
@@ -15,7 +16,11 @@ import java.util.Arrays;
 import java.util.stream.DoubleStream;
 
 
-public class RecurrentNeuralNetwork implements Serializable, Parametrized, TimedRealFunction, Snapshottable {
+// windowed mode unrolls the last 'steps' observations from a zero hidden state at every call, while stateful mode carries
+// the hidden state over and performs one recurrent update per call; in both, the input gate runs once per observation;
+// the legacy window replays networks evolved before the window was fixed, where only the current observation is stored
+// (none with steps = 1) and all the older ones are empty
+public class RecurrentNeuralNetwork implements Serializable, Parametrized, TimedRealFunction, Snapshottable, Resettable {
 
   @JsonProperty
   private final MultiLayerPerceptron inputGate;
@@ -29,7 +34,16 @@ public class RecurrentNeuralNetwork implements Serializable, Parametrized, Timed
   private final double[] hiddenState;
   @JsonProperty
   private final int steps;
-  private final double[][] memory; // memory[0] is current obs
+  @JsonProperty
+  private final boolean stateful;
+  @JsonProperty
+  private final boolean legacyWindow;
+  // memory[0] is the current observation, for the legacy window only
+  private final double[][] memory;
+  // ring buffer of the input gate outputs of the last 'steps' observations, gateMemory[head] being the current one
+  private final double[][] gateMemory;
+  private int head;
+  private boolean primed;
   private double lastT;
   private double[] lastOutput;
 
@@ -39,22 +53,45 @@ public class RecurrentNeuralNetwork implements Serializable, Parametrized, Timed
                                 @JsonProperty("hiddenWeights") double[][] hiddenWeights,
                                 @JsonProperty("outputGate") MultiLayerPerceptron outputGate,
                                 @JsonProperty("hiddenState") double[] hiddenState,
-                                @JsonProperty("steps") int steps) {
+                                @JsonProperty("steps") int steps,
+                                @JsonProperty("stateful") boolean stateful,
+                                @JsonProperty("legacyWindow") Boolean legacyWindow) {
     this.inputGate = inputGate;
     this.hiddenActivationFunction = hiddenActivationFunction;
     this.hiddenWeights = hiddenWeights;
     this.outputGate = outputGate;
     this.hiddenState = hiddenState;
     this.steps = steps;
-    this.memory = new double[steps][getInputDimension()];
+    this.stateful = stateful;
+    // networks serialized before the property existed were evolved with the legacy window
+    this.legacyWindow = !stateful && (legacyWindow == null || legacyWindow);
+    this.memory = (this.legacyWindow) ? new double[steps][getInputDimension()] : null;
+    this.gateMemory = new double[steps][];
+    this.head = 0;
+    this.primed = false;
     this.lastT = 0.0;
     this.lastOutput = new double[getOutputDimension()];
   }
 
+  public RecurrentNeuralNetwork(MultiLayerPerceptron inputGate, MultiLayerPerceptron.ActivationFunction hiddenActivationFunction, double[][] hiddenWeights,
+                                MultiLayerPerceptron outputGate, double[] hiddenState, int steps) {
+    this(inputGate, hiddenActivationFunction, hiddenWeights, outputGate, hiddenState, steps, false, false);
+  }
+
   public RecurrentNeuralNetwork(MultiLayerPerceptron.ActivationFunction hiddenActivationFunction, MultiLayerPerceptron.ActivationFunction outputActivationFunction,
-                                int nOfInputs, int nOfHiddenUnits, int nOfOutputs, int steps) {
+                                int nOfInputs, int nOfHiddenUnits, int nOfOutputs, int steps, boolean stateful, boolean legacyWindow) {
     this(new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.IDENTITY, nOfInputs, new int[]{}, nOfHiddenUnits), hiddenActivationFunction, new double[nOfHiddenUnits][nOfHiddenUnits], new MultiLayerPerceptron(outputActivationFunction, nOfHiddenUnits, new int[]{}, nOfOutputs),
-            new double[nOfHiddenUnits], steps);
+            new double[nOfHiddenUnits], steps, stateful, legacyWindow);
+  }
+
+  public RecurrentNeuralNetwork(MultiLayerPerceptron.ActivationFunction hiddenActivationFunction, MultiLayerPerceptron.ActivationFunction outputActivationFunction,
+                                int nOfInputs, int nOfHiddenUnits, int nOfOutputs, int steps, boolean stateful) {
+    this(hiddenActivationFunction, outputActivationFunction, nOfInputs, nOfHiddenUnits, nOfOutputs, steps, stateful, false);
+  }
+
+  public RecurrentNeuralNetwork(MultiLayerPerceptron.ActivationFunction hiddenActivationFunction, MultiLayerPerceptron.ActivationFunction outputActivationFunction,
+                                int nOfInputs, int nOfHiddenUnits, int nOfOutputs, int steps) {
+    this(hiddenActivationFunction, outputActivationFunction, nOfInputs, nOfHiddenUnits, nOfOutputs, steps, false);
   }
 
   public static int countWeights(int nOfInputs, int nHiddenUnits, int nOfOutputs) {
@@ -67,24 +104,51 @@ public class RecurrentNeuralNetwork implements Serializable, Parametrized, Timed
       return lastOutput;
     }
     lastT = t;
-    reshapeMemory(inputs);
-    Arrays.fill(hiddenState, 0.0);
-    // unroll through time
-    for (int s = steps - 1; s >= 0; --s) {
-      double[] hiddenBias = inputGate.apply(memory[s]);
-      for (int j = 0; j < hiddenWeights.length; j++) {
-        double sum = hiddenBias[j]; // set the bias
-        for (int k = 0; k < hiddenWeights[j].length; ++k) {
-          sum = sum + hiddenState[j] * hiddenWeights[j][k];
-        }
-        hiddenState[j] = hiddenActivationFunction.apply(sum);
+    if (stateful) {
+      recur(inputGate.apply(inputs));
+    }
+    else if (legacyWindow) {
+      reshapeLegacyMemory(inputs);
+      Arrays.fill(hiddenState, 0.0);
+      for (int s = steps - 1; s >= 0; --s) {
+        recur(inputGate.apply(memory[s]));
+      }
+    }
+    else {
+      reshapeMemory(inputs);
+      Arrays.fill(hiddenState, 0.0);
+      // unroll through time
+      for (int s = steps - 1; s >= 0; --s) {
+        recur(gateMemory[(head + steps - s) % steps]);
       }
     }
     lastOutput = outputGate.apply(hiddenState);
     return lastOutput;
   }
 
+  private void recur(double[] hiddenBias) {
+    for (int j = 0; j < hiddenWeights.length; j++) {
+      double sum = hiddenBias[j]; // set the bias
+      for (int k = 0; k < hiddenWeights[j].length; ++k) {
+        sum = sum + hiddenState[j] * hiddenWeights[j][k];
+      }
+      hiddenState[j] = (hiddenActivationFunction == MultiLayerPerceptron.ActivationFunction.TANH) ? Activations.tanh(sum) : hiddenActivationFunction.apply(sum);
+    }
+  }
+
   public void reshapeMemory(double[] currInput) {
+    // the window starts filled with empty observations
+    if (!primed) {
+      double[] empty = inputGate.apply(new double[getInputDimension()]);
+      Arrays.fill(gateMemory, empty);
+      primed = true;
+    }
+    head = (head + 1) % steps;
+    gateMemory[head] = inputGate.apply(currInput);
+  }
+
+  // the shifting code as it was: memory[1] is never written, hence no observation moves past memory[0]
+  private void reshapeLegacyMemory(double[] currInput) {
     int inputDimension = getInputDimension();
     for (int i = steps - 2; i >= 0; --i) {
       if (i == 0) {
@@ -96,6 +160,40 @@ public class RecurrentNeuralNetwork implements Serializable, Parametrized, Timed
     }
   }
 
+  @Override
+  public void reset() {
+    Arrays.fill(hiddenState, 0.0);
+    if (memory != null) {
+      for (double[] observation : memory) {
+        Arrays.fill(observation, 0.0);
+      }
+    }
+    primed = false;
+    head = 0;
+    lastT = 0.0;
+    lastOutput = new double[getOutputDimension()];
+  }
+
+  public MultiLayerPerceptron.ActivationFunction getHiddenActivationFunction() {
+    return this.hiddenActivationFunction;
+  }
+
+  public int getNumberOfHiddenUnits() {
+    return this.hiddenWeights.length;
+  }
+
+  public int getSteps() {
+    return this.steps;
+  }
+
+  public boolean isStateful() {
+    return this.stateful;
+  }
+
+  public boolean isLegacyWindow() {
+    return this.legacyWindow;
+  }
+
   @Override
   public int getInputDimension() {
     return this.inputGate.getInputDimension();
@@ -123,16 +221,19 @@ public class RecurrentNeuralNetwork implements Serializable, Parametrized, Timed
   }
 
   @Override
-  public void setParams(double[] params) {
-    int numInputGateParams = inputGate.getParams().length;
+  public void setParams(double[] params) { this.setParams(ParameterView.of(params)); }
+
+  public void setParams(ParameterView params) {
+    int numInputGateParams = (getInputDimension() + 1) * hiddenWeights.length;
     int numHiddenGateParams = hiddenWeights.length * hiddenWeights.length;
-    inputGate.setParams(Arrays.stream(params).limit(numInputGateParams).toArray());
+    inputGate.setParams(params.slice(0, numInputGateParams).toArray());
     int p = 0;
     for (double[] hiddenWeight : hiddenWeights) {
-      System.arraycopy(params, numInputGateParams + p, hiddenWeight, 0, hiddenWeight.length);
+      params.copyTo(numInputGateParams + p, hiddenWeight, 0, hiddenWeight.length);
       p = p + hiddenWeight.length;
     }
-    outputGate.setParams(Arrays.stream(params).skip(numInputGateParams + numHiddenGateParams).toArray());
+    outputGate.setParams(params.skip(numInputGateParams + numHiddenGateParams).toArray());
+    primed = false;
   }
 
 }
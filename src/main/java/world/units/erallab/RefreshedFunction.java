@@ -0,0 +1,12 @@
+package world.units.erallab;
+
+
+// functions reusing a previously computed attention until it is refreshed, counting the evaluations it served (hits) and
+// those computing it again (misses)
+public interface RefreshedFunction {
+
+  long getHits();
+
+  long getMisses();
+
+}
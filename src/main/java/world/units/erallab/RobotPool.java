@@ -0,0 +1,57 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
+import it.units.erallab.hmsrobots.util.Grid;
+import world.units.erallab.mappers.Reloadable;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.function.Function;
+
+
+// per-thread pool of robots built by one mapper: a borrowed robot gets the new genotype loaded in place into its controller and
+// is reset, hence the body is cloned and the controller built only the first time a thread needs a robot
+public class RobotPool {
+
+  private static final int MAX_IDLE = 2;
+
+  private final Function<List<Double>, Robot<?>> mapper;
+  private final Grid<? extends SensingVoxel> body;
+  private final ThreadLocal<Deque<Robot<?>>> idle;
+
+  // body is the grid the mapper builds its robots from
+  public RobotPool(Function<List<Double>, Robot<?>> mapper, Grid<? extends SensingVoxel> body) {
+    this.mapper = mapper;
+    this.body = body;
+    this.idle = ThreadLocal.withInitial(ArrayDeque::new);
+  }
+
+  public Robot<?> borrow(List<Double> genotype) {
+    Robot<?> robot = (this.mapper instanceof Reloadable) ? this.idle.get().poll() : null;
+    if (robot == null) {
+      return this.mapper.apply(genotype);
+    }
+    ((Reloadable) this.mapper).reload(robot, genotype);
+    robot.reset();
+    return robot;
+  }
+
+  public void release(Robot<?> robot) {
+    Deque<Robot<?>> robots = this.idle.get();
+    if (this.mapper instanceof Reloadable && robots.size() < MAX_IDLE) {
+      robots.push(robot);
+    }
+  }
+
+  // a robot owned by the caller, never returned to the pool
+  public Robot<?> build(List<Double> genotype) {
+    return this.mapper.apply(genotype);
+  }
+
+  public Grid<? extends SensingVoxel> getBody() {
+    return this.body;
+  }
+
+}
@@ -3,19 +3,19 @@ package world.units.erallab;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
-import it.units.erallab.hmsrobots.core.controllers.RealFunction;
+import it.units.erallab.hmsrobots.core.controllers.Resettable;
 import it.units.erallab.hmsrobots.core.snapshots.MLPState;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshot;
 import it.units.erallab.hmsrobots.core.snapshots.Snapshottable;
 import it.units.erallab.hmsrobots.util.Domain;
 import it.units.erallab.hmsrobots.util.Parametrized;
-import org.apache.commons.lang3.ArrayUtils;
+import world.units.erallab.algebra.LinearAlgebras;
 
 import java.io.Serializable;
 import java.util.Arrays;
 
 
-public class SelfAttention implements Serializable, Parametrized, RealFunction, Snapshottable {
+public class SelfAttention implements Serializable, Parametrized, SlottedFunction, RefreshedFunction, Snapshottable, Resettable {
 
   @JsonProperty
   private final MultiLayerPerceptron inner;
@@ -45,10 +45,25 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
   private final double[][] q;
   private final double[][] k;
   private final double[][] v;
+  private final double[] flatLatentCode;
+  private final double[] flatAttention;
+  private final double scale;
+  private int lastSlot;
+  private boolean inPlace;
+  private boolean compiled;
+  // with 1-wide projections, q_i.k_j/sqrt(dk) = alpha*x_i*x_j + beta*x_i + gamma*x_j + delta
+  private double alpha;
+  private double beta;
+  private double gamma;
+  private double delta;
+  // downstream weights as a flat (nOutputs,1 + din * n) matrix, bias first, and stacked downstream inputs, one row per
+  // function, for the batched kernel
+  private double[] flatWeights;
+  private double[] batchInputs;
   private boolean freeze;
   private int id;
-  private int steps;
   private int t;
+  private final AttentionRefresh refresh;
 
   @JsonCreator
   public SelfAttention(@JsonProperty("inner") MultiLayerPerceptron inner,
@@ -78,16 +93,38 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
     this.q = new double[din][dk];
     this.k = new double[din][dk];
     this.v = new double[din][dv];
+    this.flatLatentCode = new double[din * n];
+    this.flatAttention = new double[din * din];
+    this.scale = Math.sqrt(dk);
+    this.lastSlot = -1;
+    this.inPlace = true;
+    this.compiled = false;
     this.freeze = false;
     this.id = -1;
-    this.steps = 1;
     this.t = 0;
+    this.refresh = new AttentionRefresh(din);
+    this.compile();
   }
 
   public SelfAttention(MultiLayerPerceptron inner, int n, int din, int dk, int dv) {
     this(inner, n, din, dk, dv, new double[1][dk], new double[1][dk], new double[n][dv],
             new double[dk], new double[dk], new double[dv]);
   }
+
+  // new instance reading the same weight arrays, with its own attention and latent code; the weights may be rewritten in place
+  // afterwards, e.g., by a mapper reload, as long as the parameters are then set on every sharing instance, since each one
+  // keeps its own compiled weights; the downstream perceptron, assumed to use tanh as built by the mappers, may keep its
+  // activations as instance state, hence it is not shared, only its weight arrays are
+  public SelfAttention shareWeights() {
+    MultiLayerPerceptron downstream = new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, this.inner.getWeights(), this.inner.getNeurons());
+    SelfAttention shared = new SelfAttention(downstream, this.n, this.din, this.dk, this.dv, this.wq, this.wk, this.wv, this.qbias, this.kbias, this.vbias);
+    shared.setInPlace(this.inPlace);
+    shared.setCompiled(this.compiled);
+    shared.setSteps(this.refresh.getSteps());
+    shared.setDriftThreshold(this.refresh.getDriftThreshold());
+    return shared;
+  }
+
   // TODO: rename
   public static int countParams(int din, int dk, int dv, int n) {
     return countQueriesAndKeysParams(din, dk) + countValuesParams(dv, n);
@@ -114,51 +151,250 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
   @Override
   public double[] getParams() { return concat(this.getAttentionParams(), this.getDownstreamParams()); }
 
-  public void setAttentionParams(double[] params) {
+  public void setAttentionParams(double[] params) { this.setAttentionParams(ParameterView.of(params)); }
+
+  public void setAttentionParams(ParameterView params) {
     int s = 0;
     for (double[] row : this.wq) {
-      System.arraycopy(params, s, row, 0, this.dk);
+      params.copyTo(s, row, 0, this.dk);
       s = s + this.dk;
     }
-    System.arraycopy(params, s, this.qbias, 0, this.dk);
+    params.copyTo(s, this.qbias, 0, this.dk);
     s = s + this.dk;
     for (double[] row : this.wk) {
-      System.arraycopy(params, s, row, 0, this.dk);
+      params.copyTo(s, row, 0, this.dk);
       s = s + this.dk;
     }
-    System.arraycopy(params, s, this.kbias, 0, this.dk);
+    params.copyTo(s, this.kbias, 0, this.dk);
     s = s + this.dk;
     for (double[] row : this.wv) {
-      System.arraycopy(params, s, row, 0, this.dv);
+      params.copyTo(s, row, 0, this.dv);
       s = s + this.dv;
     }
-    System.arraycopy(params, s, this.vbias, 0, this.dv);
+    params.copyTo(s, this.vbias, 0, this.dv);
+    this.compile();
+  }
+
+  private boolean isCompilable() {
+    return this.wq.length == 1 && this.wk.length == 1;
+  }
+
+  private void compile() {
+    if (!this.isCompilable()) {
+      return;
+    }
+    double a = 0.0;
+    double b = 0.0;
+    double c = 0.0;
+    double d = 0.0;
+    for (int m = 0; m < this.dk; ++m) {
+      a += this.wq[0][m] * this.wk[0][m];
+      b += this.wq[0][m] * this.kbias[m];
+      c += this.qbias[m] * this.wk[0][m];
+      d += this.qbias[m] * this.kbias[m];
+    }
+    this.alpha = a / this.scale;
+    this.beta = b / this.scale;
+    this.gamma = c / this.scale;
+    this.delta = d / this.scale;
+  }
+
+  public void setDownstreamParams(double[] params) {
+    this.inner.setParams(params);
+    this.flatWeights = null;
   }
 
-  public void setDownstreamParams(double[] params) { this.inner.setParams(params); }
+  public void setDownstreamParams(ParameterView params) {
+    this.inner.setParams(params.toArray());
+    this.flatWeights = null;
+  }
 
   @Override
-  public void setParams(double[] params) {
-    this.setAttentionParams(Arrays.stream(params).limit(countParams(this.din, this.dk, this.dv, this.n)).toArray());
-    this.setDownstreamParams(Arrays.stream(params).skip(countParams(this.din, this.dk, this.dv, this.n)).toArray());
+  public void setParams(double[] params) { this.setParams(ParameterView.of(params)); }
+
+  public void setParams(ParameterView params) {
+    int numAttention = this.countParams();
+    this.setAttentionParams(params.slice(0, numAttention));
+    this.setDownstreamParams(params.skip(numAttention));
   }
 
   public static double[] concat(double[]... arrays) {
-    double[] values = new double[]{};
+    int length = 0;
+    for (double[] a : arrays) {
+      length += a.length;
+    }
+    double[] values = new double[length];
+    int s = 0;
     for (double[] a : arrays) {
-      values = ArrayUtils.addAll(values, a);
+      System.arraycopy(a, 0, values, s, a.length);
+      s = s + a.length;
     }
     return values;
   }
 
   @Override
   public double[] apply(double[] inputs) {
-    //this.freeze = this.t % this.steps != 0;
     ++this.t;
+    if (this.inPlace) {
+      this.applyAttention(inputs);
+      return this.inner.apply(this.flatLatentCode);
+    }
     return this.inner.apply(flat(this.applyAttention(inputs)));
   }
 
+  // sparse counterpart of apply: 'readings' are the din local inputs of the voxel sitting in 'slot', all other rows being zero
+  @Override
+  public double[] apply(int slot, double[] readings) {
+    ++this.t;
+    this.applyAttention(slot, readings);
+    return this.inner.apply(this.flatLatentCode);
+  }
+
+  public boolean sharesWeightsWith(SelfAttention other) {
+    return this.inner.getWeights() == other.inner.getWeights() && this.wq == other.wq && this.wk == other.wk && this.wv == other.wv;
+  }
+
+  // the batched kernel assumes, as built by the mappers, a tanh perceptron without hidden layers downstream
+  public boolean isBatchable() {
+    return this.inner.getNeurons().length == 2 && this.inner.getInputDimension() == this.din * this.n;
+  }
+
+  // batched counterpart of apply(slot, readings) for functions sharing the same weights: each function updates its own
+  // attention and latent code, then the downstream perceptron runs once on the (functions,1 + din * n) matrix of the stacked
+  // latent codes, writing the outputs of function v in outputs[v * nOutputs..(v + 1) * nOutputs); the naive kernel, unless a
+  // backend is forced, sums in the same order as the perceptron, where only the column of the slot is non-zero, and the tanh
+  // is the exact one, whatever the mode of Activations, which the library perceptron does not follow
+  public static void applyBatch(SelfAttention[] functions, int[] slots, double[][] readings, double[] outputs) {
+    SelfAttention first = functions[0];
+    int nOutputs = first.getOutputDimension();
+    int width = 1 + first.din * first.n;
+    if (first.flatWeights == null) {
+      first.flatWeights = flat(first.inner.getWeights()[0]);
+    }
+    if (first.batchInputs == null || first.batchInputs.length != functions.length * width) {
+      first.batchInputs = new double[functions.length * width];
+    }
+    double[] inputs = first.batchInputs;
+    Arrays.fill(inputs, 0.0);
+    for (int v = 0; v < functions.length; ++v) {
+      SelfAttention function = functions[v];
+      int slot = slots[v];
+      ++function.t;
+      double[][] latentCode = function.applyAttention(slot, readings[v]);
+      inputs[v * width] = 1.0;
+      for (int a = 0; a < first.din; ++a) {
+        inputs[v * width + 1 + a * first.n + slot] = Math.tanh(latentCode[a][slot]);
+      }
+    }
+    LinearAlgebras.forcedOr(LinearAlgebras.NAIVE).multTransB(inputs, first.flatWeights, outputs, functions.length, width, nOutputs);
+    for (int i = 0; i < functions.length * nOutputs; ++i) {
+      outputs[i] = Math.tanh(outputs[i]);
+    }
+  }
+
   public double[][] applyAttention(double[] inputs) {
+    return (this.inPlace) ? this.applyAttentionInPlace(inputs) : this.applyAttentionAllocating(inputs);
+  }
+
+  // same arithmetic as applyAttentionAllocating, in the same order, but reading the input in place and writing only to preallocated buffers;
+  // a backend forced for the whole run, e.g., a blocked one for large shapes, may change the summation order of the latent code
+  private double[][] applyAttentionInPlace(double[] inputs) {
+    if (inputs.length != this.n * this.din) {
+      throw new RuntimeException(String.format("Cannot reshape vector of size %d into (%d,%d)", inputs.length, this.n, this.din));
+    }
+    int offset = 0;
+    search:
+    for (int i = 0; i < this.n; ++i) {
+      for (int j = 0; j < this.din; ++j) {
+        if (inputs[i * this.din + j] != 0.0) {
+          offset = i * this.din;
+          break search;
+        }
+      }
+    }
+    if (this.isRefreshDue(inputs, offset)) {
+      this.computeAttention(inputs, offset);
+    }
+    // latent code (din,n) = attention (din,din) * inputs^T, inputs being (n,din)
+    for (int i = 0; i < this.din; ++i) {
+      System.arraycopy(this.attention[i], 0, this.flatAttention, i * this.din, this.din);
+    }
+    LinearAlgebras.forcedOr(LinearAlgebras.NAIVE).multTransB(this.flatAttention, inputs, this.flatLatentCode, this.din, this.din, this.n);
+    for (int i = 0; i < this.din; ++i) {
+      System.arraycopy(this.flatLatentCode, i * this.n, this.latentCode[i], 0, this.n);
+    }
+    this.lastSlot = -1;
+    return this.latentCode;
+  }
+
+  public double[][] applyAttention(int slot, double[] readings) {
+    if (readings.length != this.din) {
+      throw new IllegalArgumentException(String.format("Expected %d readings, found %d", this.din, readings.length));
+    }
+    if (slot < 0 || slot >= this.n) {
+      throw new IllegalArgumentException(String.format("Slot %d out of range [0,%d)", slot, this.n));
+    }
+    if (this.isRefreshDue(readings, 0)) {
+      this.computeAttention(readings, 0);
+    }
+    // only the column of the occupied slot can be non-zero, the others are reset once when the slot changes
+    if (this.lastSlot != slot) {
+      for (double[] row : this.latentCode) {
+        Arrays.fill(row, 0.0);
+      }
+      Arrays.fill(this.flatLatentCode, 0.0);
+      this.lastSlot = slot;
+    }
+    for (int i = 0; i < this.din; ++i) {
+      double sum = 0.0;
+      for (int m = 0; m < this.din; ++m) {
+        sum += this.attention[i][m] * readings[m];
+      }
+      this.latentCode[i][slot] = sum;
+      this.flatLatentCode[i * this.n + slot] = sum;
+    }
+    return this.latentCode;
+  }
+
+  private boolean isRefreshDue(double[] inputs, int offset) {
+    return !this.freeze && this.refresh.isDue(inputs, offset);
+  }
+
+  private void computeAttention(double[] inputs, int offset) {
+    if (this.compiled && this.isCompilable()) {
+      for (int i = 0; i < this.din; ++i) {
+        double xi = inputs[offset + i];
+        double a = this.alpha * xi + this.gamma;
+        double b = this.beta * xi + this.delta;
+        for (int j = 0; j < this.din; ++j) {
+          this.attention[i][j] = Activations.tanh(a * inputs[offset + j] + b);
+        }
+      }
+      return;
+    }
+    for (int i = 0; i < this.din; ++i) {
+      double x = inputs[offset + i];
+      for (int j = 0; j < this.dk; ++j) {
+        double sum = 0.0;
+        sum += x * this.wq[0][j];
+        this.q[i][j] = sum + this.qbias[j];
+        sum = 0.0;
+        sum += x * this.wk[0][j];
+        this.k[i][j] = sum + this.kbias[j];
+      }
+    }
+    for (int i = 0; i < this.din; ++i) {
+      for (int j = 0; j < this.din; ++j) {
+        double sum = 0.0;
+        for (int m = 0; m < this.dk; ++m) {
+          sum += this.q[i][m] * this.k[j][m];
+        }
+        this.attention[i][j] = Activations.tanh(sum / this.scale);
+      }
+    }
+  }
+
+  private double[][] applyAttentionAllocating(double[] inputs) {
     double[][] reshaped = reshapeVector(inputs, this.n, this.din);
     int k = 0;
     for (int i = 0; i < this.n; ++i) {
@@ -168,7 +404,7 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
       }
     }
     double[][] originalInputs = reshapeVector(reshaped[k], this.din, 1);
-    if (!this.freeze) {
+    if (this.isRefreshDue(inputs, k * this.din)) {
       linearTransform(originalInputs, this.wq, this.qbias, this.q);
       double[][] keys = matrixTranspose(linearTransform(originalInputs, this.wk, this.kbias, this.k));
       //linearTransform(matrixTranspose(reshaped), this.wv, this.vbias, this.v);
@@ -210,6 +446,11 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
     this.freeze = true;
   }
 
+  public void setInPlace(boolean inPlace) { this.inPlace = inPlace; }
+
+  // closed-form attention, equal to the general one up to floating-point reassociation
+  public void setCompiled(boolean compiled) { this.compiled = compiled; }
+
   public double[][] getAttention() { return this.attention; }
 
   public void setAttention(double[][] attention) {
@@ -218,7 +459,32 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
 
   public void setId(int id) { this.id = id; }
 
-  public void setSteps(int steps) { this.steps = steps; }
+  public void setSteps(int steps) { this.refresh.setSteps(steps); }
+
+  public void setDriftThreshold(double driftThreshold) { this.refresh.setDriftThreshold(driftThreshold); }
+
+  AttentionRefresh getRefresh() { return this.refresh; }
+
+  @Override
+  public long getHits() { return this.refresh.getHits(); }
+
+  @Override
+  public long getMisses() { return this.refresh.getMisses(); }
+
+  @Override
+  public void reset() {
+    this.refresh.reset();
+  }
+
+  public int getN() { return this.n; }
+
+  public int getDin() { return this.din; }
+
+  public int getDk() { return this.dk; }
+
+  public int getDv() { return this.dv; }
+
+  public MultiLayerPerceptron getDownstream() { return this.inner; }
 
   @Override
   public int getInputDimension() {
@@ -277,21 +543,11 @@ public class SelfAttention implements Serializable, Parametrized, RealFunction,
   }
 
   public static double[] softmax(double[] v) {
-    double sum = 0.0;
-    double temp;
-    for (int i = 0; i < v.length; ++i) {
-      temp = Math.exp(v[i]);
-      v[i] = temp;
-      sum += temp;
-    }
-    vectorDiv(v, sum);
-    return v;
+    return Activations.softmax(v);
   }
 
   public static void tanh(double[] v) {
-    for (int i = 0; i < v.length; ++i) {
-      v[i] = Math.tanh(v[i]);
-    }
+    Activations.tanh(v, 0, v.length);
   }
 
   public static double[][] matrixDiv(double[][] m, double value) {
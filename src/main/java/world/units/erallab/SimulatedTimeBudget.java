@@ -0,0 +1,39 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.malelab.jgea.core.evolver.Event;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Predicate;
+
+
+// stop condition on the simulated seconds spent by the evaluations, rather than on their number, for episodes of varying length
+public class SimulatedTimeBudget implements Predicate<Event<?, ?, ?>> {
+
+  private final double seconds;
+  private final DoubleAdder spent;
+
+  public SimulatedTimeBudget(double seconds) {
+    this.seconds = seconds;
+    this.spent = new DoubleAdder();
+  }
+
+  public Outcome spend(Outcome outcome) {
+    if (outcome instanceof RacedOutcome) {
+      ((RacedOutcome) outcome).getOutcomes().forEach(this::spend);
+    } else {
+      this.spent.add(outcome.getObservations().lastKey());
+    }
+    return outcome;
+  }
+
+  public double getSpent() {
+    return this.spent.sum();
+  }
+
+  @Override
+  public boolean test(Event<?, ?, ?> event) {
+    return this.spent.sum() >= this.seconds;
+  }
+
+}
@@ -0,0 +1,11 @@
+package world.units.erallab;
+
+import it.units.erallab.hmsrobots.core.controllers.RealFunction;
+
+
+// functions of a positionally encoded input where only the din readings of the voxel sitting in 'slot' are non-zero
+public interface SlottedFunction extends RealFunction {
+
+  double[] apply(int slot, double[] readings);
+
+}
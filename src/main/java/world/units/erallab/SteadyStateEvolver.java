@@ -0,0 +1,128 @@
+package world.units.erallab;
+
+import it.units.malelab.jgea.core.Factory;
+import it.units.malelab.jgea.core.Individual;
+import it.units.malelab.jgea.core.evolver.Event;
+import it.units.malelab.jgea.core.evolver.Evolver;
+import it.units.malelab.jgea.core.evolver.State;
+import it.units.malelab.jgea.core.listener.Listener;
+import it.units.malelab.jgea.core.operator.GeneticOperator;
+import it.units.malelab.jgea.core.order.DAGPartiallyOrderedCollection;
+import it.units.malelab.jgea.core.order.PartialComparator;
+import it.units.malelab.jgea.core.order.PartiallyOrderedCollection;
+import it.units.malelab.jgea.core.selector.Selector;
+import it.units.malelab.jgea.core.util.Misc;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+
+// asynchronous steady-state evolver: as soon as an evaluation completes, the individual joins the population, the worst ones
+// are removed down to the population size, and new offspring are bred, so that concurrency evaluations are always running
+// with no generation barrier; every populationSize offspring evaluations count as an iteration, for listeners and stop
+// conditions; with remap, as the standard evolver does for noisy fitness, the population is evaluated again at every
+// iteration and each individual still there when its new evaluation completes is replaced by the new one
+public class SteadyStateEvolver<G, S, F> implements Evolver<G, S, F> {
+
+  private final Function<? super G, ? extends S> solutionMapper;
+  private final Factory<? extends G> genotypeFactory;
+  private final PartialComparator<? super Individual<G, S, F>> individualComparator;
+  private final int populationSize;
+  private final Map<GeneticOperator<G>, Double> operators;
+  private final Selector<? super Individual<? super G, ? super S, ? super F>> parentSelector;
+  private final Selector<? super Individual<? super G, ? super S, ? super F>> unsurvivalSelector;
+  private final boolean remap;
+  private final int concurrency;
+
+  public SteadyStateEvolver(Function<? super G, ? extends S> solutionMapper, Factory<? extends G> genotypeFactory, PartialComparator<? super Individual<G, S, F>> individualComparator, int populationSize, Map<GeneticOperator<G>, Double> operators, Selector<? super Individual<? super G, ? super S, ? super F>> parentSelector, Selector<? super Individual<? super G, ? super S, ? super F>> unsurvivalSelector, boolean remap, int concurrency) {
+    this.solutionMapper = solutionMapper;
+    this.genotypeFactory = genotypeFactory;
+    this.individualComparator = individualComparator;
+    this.populationSize = populationSize;
+    this.operators = operators;
+    this.parentSelector = parentSelector;
+    this.unsurvivalSelector = unsurvivalSelector;
+    this.remap = remap;
+    this.concurrency = concurrency;
+  }
+
+  @Override
+  public Collection<S> solve(Function<S, F> fitnessFunction, Predicate<? super Event<G, S, F>> stopCondition, Random random, ExecutorService executor, Listener<? super Event<G, S, F>> listener) throws InterruptedException, ExecutionException {
+    long startMillis = System.currentTimeMillis();
+    State state = new State();
+    PartiallyOrderedCollection<Individual<G, S, F>> population = new DAGPartiallyOrderedCollection<>(this.individualComparator);
+    CompletionService<Individual<G, S, F>> evaluations = new ExecutorCompletionService<>(executor);
+    // running evaluations of individuals of the population, each with the individual it replaces
+    Map<Future<Individual<G, S, F>>, Individual<G, S, F>> remapped = new HashMap<>();
+    int nOfRunning = 0;
+    for (G genotype : this.genotypeFactory.build(this.populationSize, random)) {
+      this.submit(evaluations, genotype, fitnessFunction, state);
+      nOfRunning += 1;
+    }
+    int nOfIterationEvaluations = 0;
+    boolean isStopped = false;
+    // selection and variation happen here only, hence random is used by a single thread
+    while (nOfRunning > 0) {
+      Future<Individual<G, S, F>> evaluation = evaluations.take();
+      Individual<G, S, F> individual = evaluation.get();
+      nOfRunning -= 1;
+      state.incFitnessEvaluations(1);
+      Individual<G, S, F> replaced = remapped.remove(evaluation);
+      if (replaced == null) {
+        population.add(individual);
+        nOfIterationEvaluations += 1;
+      }
+      else if (population.all().contains(replaced)) {
+        population.remove(replaced);
+        population.add(new Individual<>(replaced.getGenotype(), individual.getSolution(), individual.getFitness(), replaced.getBirthIteration()));
+      }
+      while (population.all().size() > this.populationSize) {
+        population.remove(this.unsurvivalSelector.select(population, random));
+      }
+      if (!isStopped && nOfIterationEvaluations == this.populationSize) {
+        nOfIterationEvaluations = 0;
+        state.setElapsedMillis(System.currentTimeMillis() - startMillis);
+        Event<G, S, F> event = new Event<>(state.copy(), new DAGPartiallyOrderedCollection<>(population.all(), this.individualComparator));
+        listener.listen(event);
+        isStopped = stopCondition.test(event);
+        state.incIterations(1);
+        if (!isStopped && this.remap) {
+          for (Individual<G, S, F> member : population.all()) {
+            remapped.put(this.evaluate(evaluations, member.getGenotype(), fitnessFunction, member.getBirthIteration()), member);
+            nOfRunning += 1;
+          }
+        }
+      }
+      // the evaluations still running when stopping are awaited, as they are already paid for
+      while (!isStopped && nOfRunning < this.concurrency) {
+        GeneticOperator<G> operator = Misc.pickRandomly(this.operators, random);
+        List<G> parents = new ArrayList<>(operator.arity());
+        for (int i = 0; i < operator.arity(); ++i) {
+          parents.add(this.parentSelector.select(population, random).getGenotype());
+        }
+        for (G child : operator.apply(parents, random)) {
+          this.submit(evaluations, child, fitnessFunction, state);
+          nOfRunning += 1;
+        }
+      }
+    }
+    listener.done();
+    return population.firsts().stream().map(Individual::getSolution).collect(Collectors.toList());
+  }
+
+  private void submit(CompletionService<Individual<G, S, F>> evaluations, G genotype, Function<S, F> fitnessFunction, State state) {
+    state.incBirths(1);
+    this.evaluate(evaluations, genotype, fitnessFunction, state.getIterations());
+  }
+
+  private Future<Individual<G, S, F>> evaluate(CompletionService<Individual<G, S, F>> evaluations, G genotype, Function<S, F> fitnessFunction, int birthIteration) {
+    return evaluations.submit(() -> {
+      S solution = this.solutionMapper.apply(genotype);
+      return new Individual<>(genotype, solution, fitnessFunction.apply(solution), birthIteration);
+    });
+  }
+
+}
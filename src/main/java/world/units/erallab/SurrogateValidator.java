@@ -18,7 +18,7 @@ import java.util.function.Function;
 
 public class SurrogateValidator {
 
-  private static final String[] terrains = {"flat", "hilly-1-10-0", "hilly-1-10-1", "hilly-1-10-2", "hilly-1-10-3", "hilly-1-10-4",
+  static final String[] terrains = {"flat", "hilly-1-10-0", "hilly-1-10-1", "hilly-1-10-2", "hilly-1-10-3", "hilly-1-10-4",
           "steppy-1-10-0", "steppy-1-10-1", "steppy-1-10-2", "steppy-1-10-3", "steppy-1-10-4", "uphill-10", "uphill-20", "downhill-10", "downhill-20"};
   private static final String[] header = {"validation.terrain", "validation.transformation", "validation.seed",
           "outcome.computation.time", "outcome.distance", "outcome.velocity", "\n"};
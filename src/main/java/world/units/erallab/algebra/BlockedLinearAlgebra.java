@@ -0,0 +1,63 @@
+package world.units.erallab.algebra;
+
+import java.util.Arrays;
+
+
+// cache-blocked kernels whose inner loops are unit-stride and free of dependencies, so that the JIT can vectorize them
+public class BlockedLinearAlgebra implements LinearAlgebra {
+
+  private static final int BLOCK = 64;
+
+  @Override
+  public void mult(double[] a, double[] b, double[] c, int n, int m, int p) {
+    Arrays.fill(c, 0, n * p, 0.0);
+    for (int k0 = 0; k0 < m; k0 += BLOCK) {
+      int k1 = Math.min(k0 + BLOCK, m);
+      for (int i = 0; i < n; ++i) {
+        int ci = i * p;
+        for (int k = k0; k < k1; ++k) {
+          double aik = a[i * m + k];
+          int bk = k * p;
+          for (int j = 0; j < p; ++j) {
+            c[ci + j] += aik * b[bk + j];
+          }
+        }
+      }
+    }
+  }
+
+  @Override
+  public void multTransB(double[] a, double[] b, double[] c, int n, int m, int p) {
+    for (int j0 = 0; j0 < p; j0 += BLOCK) {
+      int j1 = Math.min(j0 + BLOCK, p);
+      for (int i = 0; i < n; ++i) {
+        int ai = i * m;
+        for (int j = j0; j < j1; ++j) {
+          int bj = j * m;
+          // four independent accumulators break the dependency chain of the dot product
+          double s0 = 0.0;
+          double s1 = 0.0;
+          double s2 = 0.0;
+          double s3 = 0.0;
+          int k = 0;
+          for (; k + 3 < m; k += 4) {
+            s0 += a[ai + k] * b[bj + k];
+            s1 += a[ai + k + 1] * b[bj + k + 1];
+            s2 += a[ai + k + 2] * b[bj + k + 2];
+            s3 += a[ai + k + 3] * b[bj + k + 3];
+          }
+          for (; k < m; ++k) {
+            s0 += a[ai + k] * b[bj + k];
+          }
+          c[i * p + j] = (s0 + s1) + (s2 + s3);
+        }
+      }
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "blocked";
+  }
+
+}
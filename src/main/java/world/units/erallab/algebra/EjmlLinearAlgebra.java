@@ -0,0 +1,25 @@
+package world.units.erallab.algebra;
+
+import org.ejml.data.DenseMatrix64F;
+import org.ejml.ops.CommonOps;
+
+
+// EJML kernels, the flat arrays being wrapped without copies
+public class EjmlLinearAlgebra implements LinearAlgebra {
+
+  @Override
+  public void mult(double[] a, double[] b, double[] c, int n, int m, int p) {
+    CommonOps.mult(DenseMatrix64F.wrap(n, m, a), DenseMatrix64F.wrap(m, p, b), DenseMatrix64F.wrap(n, p, c));
+  }
+
+  @Override
+  public void multTransB(double[] a, double[] b, double[] c, int n, int m, int p) {
+    CommonOps.multTransB(DenseMatrix64F.wrap(n, m, a), DenseMatrix64F.wrap(p, m, b), DenseMatrix64F.wrap(n, p, c));
+  }
+
+  @Override
+  public String getName() {
+    return "ejml";
+  }
+
+}
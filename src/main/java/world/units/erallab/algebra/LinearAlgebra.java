@@ -0,0 +1,16 @@
+package world.units.erallab.algebra;
+
+
+
+// dense kernels on row-major flat matrices, implementations differing only in speed and floating-point summation order
+public interface LinearAlgebra {
+
+  // c (n,p) = a (n,m) * b (m,p)
+  void mult(double[] a, double[] b, double[] c, int n, int m, int p);
+
+  // c (n,p) = a (n,m) * b^T, b being (p,m)
+  void multTransB(double[] a, double[] b, double[] c, int n, int m, int p);
+
+  String getName();
+
+}
@@ -0,0 +1,54 @@
+package world.units.erallab.algebra;
+
+import java.util.Locale;
+
+
+// backend selection: by default on the number of multiply-adds of the product, unless a backend is forced for the whole run
+public class LinearAlgebras {
+
+  public static final LinearAlgebra NAIVE = new NaiveLinearAlgebra();
+  public static final LinearAlgebra BLOCKED = new BlockedLinearAlgebra();
+  public static final LinearAlgebra EJML = new EjmlLinearAlgebra();
+
+  // below these sizes the call overhead of the more elaborate kernels is not repaid
+  private static final long BLOCKED_THRESHOLD = 4096;
+  private static final long EJML_THRESHOLD = 262144;
+
+  private static LinearAlgebra forced = null;
+
+  private LinearAlgebras() {
+  }
+
+  // "auto" restores the selection by dimension
+  public static void force(String name) {
+    forced = switch (name.toLowerCase(Locale.ROOT)) {
+      case "auto" -> null;
+      case "naive" -> NAIVE;
+      case "blocked" -> BLOCKED;
+      case "ejml" -> EJML;
+      default -> throw new IllegalArgumentException(String.format("Linear algebra backend not known: %s", name));
+    };
+  }
+
+  // name of the forced backend, or "auto", e.g., for telling apart results computed with different backends
+  public static String getMode() {
+    return (forced == null) ? "auto" : forced.getName();
+  }
+
+  // the forced backend, or the given one, e.g., for keeping a summation order unless a backend is forced for the whole run
+  public static LinearAlgebra forcedOr(LinearAlgebra fallback) {
+    return (forced == null) ? fallback : forced;
+  }
+
+  public static LinearAlgebra select(int n, int m, int p) {
+    if (forced != null) {
+      return forced;
+    }
+    long size = (long) n * m * p;
+    if (size < BLOCKED_THRESHOLD) {
+      return NAIVE;
+    }
+    return (size < EJML_THRESHOLD) ? BLOCKED : EJML;
+  }
+
+}
@@ -0,0 +1,38 @@
+package world.units.erallab.algebra;
+
+
+// plain triple loops, with the same summation order as SelfAttention.matrixMult
+public class NaiveLinearAlgebra implements LinearAlgebra {
+
+  @Override
+  public void mult(double[] a, double[] b, double[] c, int n, int m, int p) {
+    for (int i = 0; i < n; ++i) {
+      for (int j = 0; j < p; ++j) {
+        double sum = 0.0;
+        for (int k = 0; k < m; ++k) {
+          sum += a[i * m + k] * b[k * p + j];
+        }
+        c[i * p + j] = sum;
+      }
+    }
+  }
+
+  @Override
+  public void multTransB(double[] a, double[] b, double[] c, int n, int m, int p) {
+    for (int i = 0; i < n; ++i) {
+      for (int j = 0; j < p; ++j) {
+        double sum = 0.0;
+        for (int k = 0; k < m; ++k) {
+          sum += a[i * m + k] * b[j * m + k];
+        }
+        c[i * p + j] = sum;
+      }
+    }
+  }
+
+  @Override
+  public String getName() {
+    return "naive";
+  }
+
+}
@@ -3,6 +3,7 @@ package world.units.erallab.mappers;
 import it.units.erallab.hmsrobots.core.controllers.Controller;
 import it.units.erallab.hmsrobots.core.controllers.RealFunction;
 import it.units.erallab.hmsrobots.core.controllers.StepController;
+import it.units.erallab.hmsrobots.core.controllers.TimedRealFunction;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.core.sensors.Constant;
@@ -10,10 +11,13 @@ import it.units.erallab.hmsrobots.core.sensors.Noisy;
 import it.units.erallab.hmsrobots.core.sensors.Sensor;
 import it.units.erallab.hmsrobots.util.*;
 import org.apache.commons.math3.util.Pair;
+import world.units.erallab.Float32;
+import world.units.erallab.ParameterView;
 import world.units.erallab.PartiallyDistributedSensing;
 
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -22,13 +26,18 @@ import java.util.stream.IntStream;
 import static it.units.erallab.hmsrobots.util.RobotUtils.sensor;
 
 // TODO: assumes same sensor config and architecture for every voxel
-public abstract class AbstractPartiallyDistributedMapper<T extends RealFunction & Parametrized> implements Function<List<Double>, Robot<?>>, GenotypeSized {
+public abstract class AbstractPartiallyDistributedMapper<T extends RealFunction & Parametrized> implements Function<List<Double>, Robot<?>>, GenotypeSized, Reloadable {
 
   protected final Grid<? extends SensingVoxel> body;
   protected final int signals;
   protected final int nNeighbors;
   protected final String neighborConfig;
   protected final double t;
+  protected final int nVoxels;
+  private int genotypeSize;
+  // intra-step parallelism of the controllers built from now on, none by default
+  private ForkJoinPool parallelPool;
+  private int parallelThreshold;
 
   public AbstractPartiallyDistributedMapper(Grid<? extends SensingVoxel> b, int s, String neighborConfig) {
     this.body = b;
@@ -36,29 +45,108 @@ public abstract class AbstractPartiallyDistributedMapper<T extends RealFunction
     this.nNeighbors = getNumberNeighbors(neighborConfig, b);
     this.neighborConfig = neighborConfig;
     this.t = 0.33;
+    this.nVoxels = (int) b.count(Objects::nonNull);
+    this.genotypeSize = -1;
+    this.parallelThreshold = Integer.MAX_VALUE;
+  }
+
+  public void setParallelEvaluation(ForkJoinPool pool, int threshold) {
+    this.parallelPool = pool;
+    this.parallelThreshold = threshold;
   }
 
   @Override
   public Robot<?> apply(List<Double> genotype) {
-    if (genotype.size() != this.getGenotypeSize()) {
-      throw new IllegalArgumentException(String.format("Wrong genotype size %d instead of %d", genotype.size(), this.getGenotypeSize()));
-    }
+    this.checkGenotypeSize(genotype);
     PartiallyDistributedSensing controller = new PartiallyDistributedSensing(this.body, this.signals, this.neighborConfig, this.nNeighbors);
+    controller.setBatched(this.isBatched());
+    controller.setParallelEvaluation(this.parallelPool, this.parallelThreshold);
+    this.setFunctions(controller, ParameterView.of(genotype));
+    return new Robot<>(new StepController<>(controller, this.t), SerializationUtils.clone(this.body));
+  }
+
+  // parameters are loaded in place into the functions, narrowed ones are built again from the genotype
+  @Override
+  @SuppressWarnings("unchecked")
+  public void reload(Robot<?> robot, List<Double> genotype) {
+    this.checkGenotypeSize(genotype);
+    PartiallyDistributedSensing controller = (PartiallyDistributedSensing) ((StepController<?>) robot.getController()).getInnerController();
+    ParameterView params = ParameterView.of(genotype);
+    if (this.isFloat32()) {
+      this.setFunctions(controller, params);
+      return;
+    }
+    int num = 0;
+    TimedRealFunction last = null;
+    for (Grid.Entry<? extends SensingVoxel> entry : this.body) {
+      if (entry.getValue() == null) {
+        continue;
+      }
+      TimedRealFunction function = controller.getFunctions().get(entry.getX(), entry.getY());
+      // shared functions still compute their own derived weights, hence all of them but the very same instance are set
+      if (function != last) {
+        this.setFuncParams((T) function, params, num);
+      }
+      last = function;
+      ++num;
+    }
+  }
+
+  private void checkGenotypeSize(List<Double> genotype) {
+    // the size is computed once, concurrent computations give the same value
+    if (this.genotypeSize < 0) {
+      this.genotypeSize = this.getGenotypeSize();
+    }
+    if (genotype.size() != this.genotypeSize) {
+      throw new IllegalArgumentException(String.format("Wrong genotype size %d instead of %d", genotype.size(), this.genotypeSize));
+    }
+  }
+
+  private void setFunctions(PartiallyDistributedSensing controller, ParameterView params) {
     int num = 0;
+    T prototype = null;
+    TimedRealFunction narrowedPrototype = null;
     for (Grid.Entry<? extends SensingVoxel> entry : this.body) {
       if (entry.getValue() == null) {
         continue;
       }
-      T function = this.getFunction(controller, entry);
-      this.setFuncParams(function, genotype, num++);
+      TimedRealFunction function;
+      if (prototype != null && this.isShared()) {
+        function = (this.isFloat32()) ? Float32.share(narrowedPrototype) : this.shareFunction(prototype);
+      }
+      else {
+        prototype = this.getFunction(controller, entry);
+        this.setFuncParams(prototype, params, num);
+        // the genotype is narrowed once, at mapping time
+        function = narrowedPrototype = (this.isFloat32()) ? Float32.narrow(prototype) : prototype;
+      }
+      ++num;
       controller.getFunctions().set(entry.getX(), entry.getY(), function);
     }
-    return new Robot<>(new StepController<>(controller, this.t), SerializationUtils.clone(this.body));
   }
 
   public abstract T getFunction(PartiallyDistributedSensing controller, Grid.Entry<? extends SensingVoxel> entry);
 
-  public abstract void setFuncParams(T function, List<Double> genotype, int num);
+  public abstract void setFuncParams(T function, ParameterView genotype, int num);
+
+  // when every voxel gets the same parameters, the weights of the first function are set once and shared with the others
+  public boolean isShared() {
+    return false;
+  }
+
+  // when true, functions are evaluated in float32
+  public boolean isFloat32() {
+    return false;
+  }
+
+  // when true, the controller evaluates the functions of all the voxels in a single batched call, if they allow it
+  public boolean isBatched() {
+    return false;
+  }
+
+  public T shareFunction(T function) {
+    throw new UnsupportedOperationException(String.format("Cannot share functions with %s", this.getClass().getSimpleName()));
+  }
 
   public static BiFunction<Pair<Integer, Integer>, Grid<? extends SensingVoxel>, List<Pair<Integer, Integer>>> getNeighborhood(String config) {
     return switch (config) {
@@ -6,6 +6,7 @@ import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.util.Grid;
 import it.units.erallab.hmsrobots.util.Parametrized;
 import it.units.erallab.hmsrobots.util.SerializationUtils;
+import world.units.erallab.ParameterView;
 import world.units.erallab.SelfAttention;
 
 import java.util.List;
@@ -13,7 +14,7 @@ import java.util.Objects;
 import java.util.function.Function;
 
 
-public class CentralizedMapper implements Function<List<Double>, Robot<?>>, GenotypeSized {
+public class CentralizedMapper implements Function<List<Double>, Robot<?>>, GenotypeSized, Reloadable {
 
   private final Grid<? extends SensingVoxel> body;
   private final int din;
@@ -22,6 +23,7 @@ public class CentralizedMapper implements Function<List<Double>, Robot<?>>, Geno
   private final int nVoxels;
   private final boolean isBaseline;
   private final boolean isTanh;
+  private final int genotypeSize;
 
   public CentralizedMapper(Grid<? extends SensingVoxel> b, String config) {
     this.body = b;
@@ -32,19 +34,39 @@ public class CentralizedMapper implements Function<List<Double>, Robot<?>>, Geno
     this.nVoxels = (int) b.count(Objects::nonNull);
     this.isBaseline = config.contains("baseline");
     this.isTanh = config.contains("tanh");
+    this.genotypeSize = this.getGenotypeSize();
   }
 
   public Robot<?> apply(List<Double> genotype) {
-    if (genotype.size() != this.getGenotypeSize()) {
-      throw new IllegalArgumentException(String.format("Wrong genotype size %d instead of %d", genotype.size(), this.getGenotypeSize()));
-    }
+    this.checkGenotypeSize(genotype);
     RealFunction function = (this.isBaseline) ? new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, this.nVoxels * this.din, new int[]{this.nVoxels * this.din}, this.nVoxels) : new SelfAttention(new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, (this.isTanh) ? this.nVoxels * this.din : this.nVoxels * this.dv, new int[]{}, this.nVoxels),
             this.nVoxels, this.din, this.dk, (this.isTanh) ? this.din : this.dv);
     CentralizedSensing controller = new CentralizedSensing(this.nVoxels * this.din, this.nVoxels, function);
-    ((Parametrized) controller.getFunction()).setParams(genotype.stream().mapToDouble(d -> d).toArray());
+    setParams(function, genotype);
     return new Robot<>(new StepController<>(controller, 0.33), SerializationUtils.clone(body));
   }
 
+  @Override
+  public void reload(Robot<?> robot, List<Double> genotype) {
+    this.checkGenotypeSize(genotype);
+    setParams(((CentralizedSensing) ((StepController<?>) robot.getController()).getInnerController()).getFunction(), genotype);
+  }
+
+  private void checkGenotypeSize(List<Double> genotype) {
+    if (genotype.size() != this.genotypeSize) {
+      throw new IllegalArgumentException(String.format("Wrong genotype size %d instead of %d", genotype.size(), this.genotypeSize));
+    }
+  }
+
+  private static void setParams(TimedRealFunction function, List<Double> genotype) {
+    if (function instanceof SelfAttention) {
+      ((SelfAttention) function).setParams(ParameterView.of(genotype));
+    }
+    else {
+      ((Parametrized) function).setParams(ParameterView.of(genotype).toArray());
+    }
+  }
+
   public int getAttentionSizeForVoxel() {
     return SelfAttention.countParams(this.din, this.dk, this.dv, this.nVoxels);
   }
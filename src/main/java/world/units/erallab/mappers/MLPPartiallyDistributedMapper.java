@@ -4,19 +4,19 @@ package world.units.erallab.mappers;
 import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
 import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.util.Grid;
+import world.units.erallab.ParameterView;
 import world.units.erallab.PartiallyDistributedSensing;
 
-import java.util.List;
-import java.util.Objects;
-
 
 public class MLPPartiallyDistributedMapper extends AbstractPartiallyDistributedMapper<MultiLayerPerceptron> {
 
   private final String distribution;
+  private final boolean isFloat32;
 
   public MLPPartiallyDistributedMapper(Grid<? extends SensingVoxel> b, String config) {
     super(b, (config.contains("none")) ? 0 : 1, config.split("-")[0]);
     this.distribution = config.split("-")[1];
+    this.isFloat32 = config.contains("float32");
     if (!(this.distribution.equals("homo") || this.distribution.equals("hetero"))) {
       throw new IllegalArgumentException(String.format("Distribution model not known: %s", this.distribution));
     }
@@ -34,23 +34,40 @@ public class MLPPartiallyDistributedMapper extends AbstractPartiallyDistributedM
   }
 
   @Override
-  public void setFuncParams(MultiLayerPerceptron function, List<Double> genotype, int num) {
+  public void setFuncParams(MultiLayerPerceptron function, ParameterView genotype, int num) {
     if (this.distribution.equals("homo")) {
-      function.setParams(genotype.stream().mapToDouble(d -> d).toArray());
+      function.setParams(genotype.toArray());
     }
     else {
       int genPerVoxels = this.getGenotypeSizeForVoxel();
-      function.setParams(genotype.subList(num * genPerVoxels, (num + 1) * genPerVoxels).stream().mapToDouble(d -> d).toArray());
+      function.setParams(genotype.slice(num * genPerVoxels, genPerVoxels).toArray());
     }
   }
 
+  @Override
+  public boolean isFloat32() {
+    return this.isFloat32;
+  }
+
+  @Override
+  public boolean isShared() {
+    return this.distribution.equals("homo");
+  }
+
+  // the perceptron may keep its activations as instance state, hence each voxel, possibly evaluated in parallel, gets its own
+  // instance over the same weight arrays
+  @Override
+  public MultiLayerPerceptron shareFunction(MultiLayerPerceptron function) {
+    return new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, function.getWeights(), function.getNeurons());
+  }
+
   public int getGenotypeSizeForVoxel() {
     int sum = 0;
     for (Grid.Entry<? extends SensingVoxel> entry : this.body) {
       if (entry.getValue() == null) {
         continue;
       }
-      int inputs = PartiallyDistributedSensing.inputs(entry.getValue(), this.nNeighbors) * (int) this.body.count(Objects::nonNull);
+      int inputs = PartiallyDistributedSensing.inputs(entry.getValue(), this.nNeighbors) * this.nVoxels;
       sum += MultiLayerPerceptron.countWeights(MultiLayerPerceptron.countNeurons(inputs, new int[]{}, (this.neighborConfig.contains("none") ? 1 : 2)));
       break;
     }
@@ -60,7 +77,7 @@ public class MLPPartiallyDistributedMapper extends AbstractPartiallyDistributedM
   @Override
   public int getGenotypeSize() {
       int sum = this.getGenotypeSizeForVoxel();
-      return (this.distribution.equals("hetero") ? sum * (int) body.count(Objects::nonNull) : sum);
+      return (this.distribution.equals("hetero") ? sum * this.nVoxels : sum);
   }
 
 }
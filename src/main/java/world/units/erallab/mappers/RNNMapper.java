@@ -4,9 +4,11 @@ import it.units.erallab.hmsrobots.core.controllers.*;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.util.Grid;
-import it.units.erallab.hmsrobots.util.Parametrized;
 import it.units.erallab.hmsrobots.util.SerializationUtils;
-import org.apache.commons.lang3.NotImplementedException;
+import world.units.erallab.BatchedRecurrentNeuralNetwork;
+import world.units.erallab.FloatRecurrentNeuralNetwork;
+import world.units.erallab.ParameterView;
+import world.units.erallab.PartiallyDistributedSensing;
 import world.units.erallab.RecurrentNeuralNetwork;
 
 import java.util.List;
@@ -14,16 +16,22 @@ import java.util.Objects;
 import java.util.function.Function;
 
 
-public class RNNMapper implements Function<List<Double>, Robot<?>>, GenotypeSized {
+public class RNNMapper implements Function<List<Double>, Robot<?>>, GenotypeSized, Reloadable {
 
   private final Grid<? extends SensingVoxel> body;
   private final int signals;
   private final String controllerType;
   private final int nHiddenUnits;
   private final int windowSize;
+  private final boolean isStateful;
+  private final boolean isLegacyWindow;
+  private final boolean isFloat32;
   private final double t;
   private final int nVoxels;
   private final int nSensors;
+  private final String neighborConfig;
+  private final int nNeighbors;
+  private final int genotypeSize;
 
   public RNNMapper(Grid<? extends SensingVoxel> b, String config) {
     this.body = b;
@@ -31,23 +39,52 @@ public class RNNMapper implements Function<List<Double>, Robot<?>>, GenotypeSize
     this.controllerType = config.split("-")[0];
     this.nHiddenUnits = Integer.parseInt(config.split("-")[1]);
     this.windowSize = Integer.parseInt(config.split("-")[2]);
+    this.isStateful = config.contains("stateful");
+    // windowed networks keep the legacy window, where only the current observation is stored, so that results stay
+    // comparable with those of the networks evolved before; "fixed" opts in to the window of the last observations
+    boolean isFixedWindow = config.contains("fixed");
+    this.isFloat32 = config.contains("float32");
+    if (isFixedWindow && this.isStateful) {
+      throw new IllegalArgumentException(String.format("The fixed window is available in windowed mode only: %s", config));
+    }
+    // float32 networks have the fixed window only
+    if (this.isFloat32 && !this.isStateful && !isFixedWindow) {
+      throw new IllegalArgumentException(String.format("Windowed float32 RNN controllers take the fixed flag: %s", config));
+    }
+    // partially distributed controllers are always stateful, "stateful" being implied, hence the window must be 1
+    if (this.controllerType.equals("partially") && (this.windowSize != 1 || isFixedWindow || this.isFloat32)) {
+      throw new IllegalArgumentException(String.format("Partially distributed RNN controllers take window 1 and no fixed or float32 flags: %s", config));
+    }
+    this.isLegacyWindow = !this.isStateful && !isFixedWindow && !this.controllerType.equals("partially");
     this.t = 0.33;
     this.nVoxels = (int) this.body.count(Objects::nonNull);
     this.nSensors = this.body.get(0, 0).getSensors().stream().mapToInt(s -> s.getDomains().length).sum();
+    // partially distributed controllers take the neighborhood as fourth token, other tokens being flags
+    this.neighborConfig = (config.split("-").length >= 4 && List.of("none", "neumann", "moore", "all").contains(config.split("-")[3])) ? config.split("-")[3] : "neumann";
+    this.nNeighbors = AbstractPartiallyDistributedMapper.getNumberNeighbors(this.neighborConfig, this.body);
+    this.genotypeSize = this.getGenotypeSize();
   }
 
   @Override
   public Robot<?> apply(List<Double> genotype) {
-    if (genotype.size() != this.getGenotypeSize()) {
-      throw new IllegalArgumentException(String.format("Wrong genotype size %d instead of %d", genotype.size(), this.getGenotypeSize()));
-    }
+    this.checkGenotypeSize(genotype);
     AbstractController controller;
-    RecurrentNeuralNetwork function;
+    TimedRealFunction function;
+    ParameterView params = ParameterView.of(genotype);
     switch (this.controllerType) {
-      case "partially" -> throw new NotImplementedException("Partially distributed not yet implemented for RNN");
+      case "partially" -> {
+        BatchedRecurrentNeuralNetwork recurrent = new BatchedRecurrentNeuralNetwork(this.nVoxels, this.nSensors + this.nNeighbors * this.signals, this.nHiddenUnits, this.signals + 1);
+        recurrent.setParams(params);
+        controller = new PartiallyDistributedSensing(
+                this.signals,
+                Grid.create(this.body, v -> (v == null) ? 0 : recurrent.getInputDimension()),
+                Grid.create(this.body, v -> null),
+                this.neighborConfig
+        );
+        ((PartiallyDistributedSensing) controller).setRecurrent(recurrent);
+      }
       case "centralized" -> {
-        function = this.getFunction(this.nVoxels * this.nSensors, this.nVoxels);
-        ((Parametrized) function).setParams(genotype.stream().mapToDouble(d -> d).toArray());
+        function = this.getFunction(this.nVoxels * this.nSensors, this.nVoxels, params);
         controller = new CentralizedSensing(this.nVoxels * this.nSensors, this.nVoxels, function);
       }
       case "distributed" -> {
@@ -56,8 +93,7 @@ public class RNNMapper implements Function<List<Double>, Robot<?>>, GenotypeSize
           if (entry.getValue() == null) {
             continue;
           }
-          function = this.getFunction(this.nSensors, 5);
-          ((Parametrized) function).setParams(genotype.stream().mapToDouble(d -> d).toArray());
+          function = this.getFunction(this.nSensors, 5, params);
           ((DistributedSensing) controller).getFunctions().set(entry.getX(), entry.getY(), function);
         }
       }
@@ -66,6 +102,53 @@ public class RNNMapper implements Function<List<Double>, Robot<?>>, GenotypeSize
     return new Robot<>(new StepController<>(controller, this.t), SerializationUtils.clone(this.body));
   }
 
+  // every function reads the same parameters
+  @Override
+  public void reload(Robot<?> robot, List<Double> genotype) {
+    this.checkGenotypeSize(genotype);
+    ParameterView params = ParameterView.of(genotype);
+    AbstractController<?> controller = ((StepController<?>) robot.getController()).getInnerController();
+    switch (this.controllerType) {
+      case "partially" -> ((PartiallyDistributedSensing) controller).getRecurrent().setParams(params);
+      case "centralized" -> setParams(((CentralizedSensing) controller).getFunction(), params);
+      default -> ((DistributedSensing) controller).getFunctions().values().stream().filter(Objects::nonNull).forEach(f -> setParams(f, params));
+    }
+  }
+
+  private void checkGenotypeSize(List<Double> genotype) {
+    if (genotype.size() != this.genotypeSize) {
+      throw new IllegalArgumentException(String.format("Wrong genotype size %d instead of %d", genotype.size(), this.genotypeSize));
+    }
+  }
+
+  private static void setParams(TimedRealFunction function, ParameterView params) {
+    if (function instanceof FloatRecurrentNeuralNetwork) {
+      ((FloatRecurrentNeuralNetwork) function).setParams(params);
+    }
+    else {
+      ((RecurrentNeuralNetwork) function).setParams(params);
+    }
+  }
+
+  // the genotype is narrowed once, at mapping time, when evaluating in float32
+  private TimedRealFunction getFunction(int nOfInputs, int nOfOutputs, ParameterView params) {
+    if (this.isFloat32) {
+      FloatRecurrentNeuralNetwork function = new FloatRecurrentNeuralNetwork(
+              MultiLayerPerceptron.ActivationFunction.TANH,
+              MultiLayerPerceptron.ActivationFunction.TANH,
+              nOfInputs,
+              this.nHiddenUnits,
+              nOfOutputs,
+              this.windowSize,
+              this.isStateful);
+      function.setParams(params);
+      return function;
+    }
+    RecurrentNeuralNetwork function = this.getFunction(nOfInputs, nOfOutputs);
+    function.setParams(params);
+    return function;
+  }
+
   public RecurrentNeuralNetwork getFunction(int nOfInputs, int nOfOutputs) {
     return new RecurrentNeuralNetwork(
             MultiLayerPerceptron.ActivationFunction.TANH,
@@ -73,13 +156,23 @@ public class RNNMapper implements Function<List<Double>, Robot<?>>, GenotypeSize
             nOfInputs,
             this.nHiddenUnits,
             nOfOutputs,
-            this.windowSize);
+            this.windowSize,
+            this.isStateful,
+            this.isLegacyWindow);
   }
 
   @Override
   public int getGenotypeSize() {
-    int nOfInputs = (this.controllerType.equals("centralized")) ? this.nVoxels * this.nSensors : this.nSensors + 4;
-    int nOfOutputs = (this.controllerType.equals("centralized")) ? this.nVoxels : 5;
+    int nOfInputs = switch (this.controllerType) {
+      case "centralized" -> this.nVoxels * this.nSensors;
+      case "partially" -> this.nSensors + this.nNeighbors * this.signals;
+      default -> this.nSensors + 4;
+    };
+    int nOfOutputs = switch (this.controllerType) {
+      case "centralized" -> this.nVoxels;
+      case "partially" -> this.signals + 1;
+      default -> 5;
+    };
     return RecurrentNeuralNetwork.countWeights(nOfInputs, this.nHiddenUnits, nOfOutputs);
   }
 
@@ -0,0 +1,13 @@
+package world.units.erallab.mappers;
+
+import it.units.erallab.hmsrobots.core.objects.Robot;
+
+import java.util.List;
+
+
+// mappers able to load a genotype into a robot they built before, reusing its body and controller
+public interface Reloadable {
+
+  void reload(Robot<?> robot, List<Double> genotype);
+
+}
@@ -3,12 +3,10 @@ package world.units.erallab.mappers;
 import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
 import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.util.Grid;
+import world.units.erallab.ParameterView;
 import world.units.erallab.PartiallyDistributedSensing;
 import world.units.erallab.SelfAttention;
 
-import java.util.List;
-import java.util.Objects;
-
 
 public class SelfAttentionPartiallyDistributedMapper extends AbstractPartiallyDistributedMapper<SelfAttention> {
 
@@ -17,7 +15,11 @@ public class SelfAttentionPartiallyDistributedMapper extends AbstractPartiallyDi
   private final int dv;
   private final String distribution;
   private final boolean isTanh;
+  private final boolean isCompiled;
+  private final boolean isBatched;
+  private final boolean isFloat32;
   private final int steps;
+  private final double driftThreshold;
 
   public SelfAttentionPartiallyDistributedMapper(Grid<? extends SensingVoxel> b, String config) {
     super(b, config.contains("none") ? 0 : 1, config.split("-")[0]);
@@ -27,7 +29,13 @@ public class SelfAttentionPartiallyDistributedMapper extends AbstractPartiallyDi
     this.dv = params[2];
     this.distribution = config.split("-")[4];
     this.isTanh = config.contains("tanh");
-    this.steps = (config.split("-").length >= 7) ? Integer.parseInt(config.split("-")[6]) : 1;
+    this.isCompiled = config.contains("compiled");
+    this.isBatched = config.contains("batched");
+    this.isFloat32 = config.contains("float32");
+    // the seventh token is either the attention refresh interval, in control steps, or "drift<threshold>" for the adaptive refresh
+    String refresh = (config.split("-").length >= 7) ? config.split("-")[6] : "1";
+    this.steps = refresh.startsWith("drift") ? 1 : Integer.parseInt(refresh);
+    this.driftThreshold = refresh.startsWith("drift") ? Double.parseDouble(refresh.substring("drift".length())) : 0.0;
     if (!(this.distribution.equals("homo|homo") || this.distribution.equals("hetero|homo") || this.distribution.equals("homo|hetero") || this.distribution.equals("hetero|hetero"))) {
       throw new IllegalArgumentException(String.format("Distribution model not known: %s", this.distribution));
     }
@@ -40,39 +48,60 @@ public class SelfAttentionPartiallyDistributedMapper extends AbstractPartiallyDi
 
   @Override
   public SelfAttention getFunction(PartiallyDistributedSensing controller, Grid.Entry<? extends SensingVoxel> entry) {
-    int nVoxels = (int) this.body.count(Objects::nonNull);
-    int mlpInput = (this.isTanh) ? nVoxels * this.din : this.din * this.dv;
+    int mlpInput = (this.isTanh) ? this.nVoxels * this.din : this.din * this.dv;
     SelfAttention attention = new SelfAttention(new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, mlpInput, new int[]{}, controller.nOfOutputs(entry.getX(), entry.getY())),
-              nVoxels, this.din, this.dk, this.dv);
+              this.nVoxels, this.din, this.dk, this.dv);
     attention.setSteps(this.steps);
+    attention.setDriftThreshold(this.driftThreshold);
+    attention.setCompiled(this.isCompiled);
     return attention;
   }
 
   @Override
-  public void setFuncParams(SelfAttention function, List<Double> genotype, int num) {
+  public void setFuncParams(SelfAttention function, ParameterView genotype, int num) {
     int numAttention = function.countParams();
     int numDownstream = this.getDownstreamSizeForVoxel();
     switch (this.distribution) {
       case "homo|homo" -> {
-        function.setAttentionParams(genotype.subList(0, numAttention).stream().mapToDouble(d -> d).toArray());
-        function.setDownstreamParams(genotype.subList(numAttention, genotype.size()).stream().mapToDouble(d -> d).toArray());
+        function.setAttentionParams(genotype.slice(0, numAttention));
+        function.setDownstreamParams(genotype.skip(numAttention));
       }
       case "homo|hetero" -> {
-        function.setAttentionParams(genotype.subList(0, numAttention).stream().mapToDouble(d -> d).toArray());
-        function.setDownstreamParams(genotype.subList(numAttention + (num * numDownstream), numAttention + ((num + 1) * numDownstream)).stream().mapToDouble(d -> d).toArray());
+        function.setAttentionParams(genotype.slice(0, numAttention));
+        function.setDownstreamParams(genotype.slice(numAttention + (num * numDownstream), numDownstream));
       }
       case "hetero|homo" -> {
-        function.setDownstreamParams(genotype.subList(0, numDownstream).stream().mapToDouble(d -> d).toArray());
-        function.setAttentionParams(genotype.subList(numDownstream + (num * numAttention), numDownstream + ((num + 1) * numAttention)).stream().mapToDouble(d -> d).toArray());
+        function.setDownstreamParams(genotype.slice(0, numDownstream));
+        function.setAttentionParams(genotype.slice(numDownstream + (num * numAttention), numAttention));
       }
       default -> {
-        List<Double> currGen = genotype.subList(num * this.getGenotypeSizeForVoxel(), (num + 1) * this.getGenotypeSizeForVoxel());
-        function.setAttentionParams(currGen.subList(0, numAttention).stream().mapToDouble(d -> d).toArray());
-        function.setDownstreamParams(currGen.subList(numAttention, currGen.size()).stream().mapToDouble(d -> d).toArray());
+        ParameterView currGen = genotype.slice(num * this.getGenotypeSizeForVoxel(), this.getGenotypeSizeForVoxel());
+        function.setAttentionParams(currGen.slice(0, numAttention));
+        function.setDownstreamParams(currGen.skip(numAttention));
       }
     }
   }
 
+  @Override
+  public boolean isFloat32() {
+    return this.isFloat32;
+  }
+
+  @Override
+  public boolean isBatched() {
+    return this.isBatched && this.isShared();
+  }
+
+  @Override
+  public boolean isShared() {
+    return this.distribution.equals("homo|homo");
+  }
+
+  @Override
+  public SelfAttention shareFunction(SelfAttention function) {
+    return function.shareWeights();
+  }
+
   public int getGenotypeSizeForVoxel() {
     int sumAttention = this.getAttentionSizeForVoxel();
     int sumDownstream = this.getDownstreamSizeForVoxel();
@@ -80,21 +109,20 @@ public class SelfAttentionPartiallyDistributedMapper extends AbstractPartiallyDi
   }
 
   public int getAttentionSizeForVoxel() {
-    return SelfAttention.countParams(this.din, this.dk, this.dv, (int) this.body.count(Objects::nonNull));
+    return SelfAttention.countParams(this.din, this.dk, this.dv, this.nVoxels);
   }
 
   public int getValuesAndDownstreamSizeForVoxel() {
-    return SelfAttention.countValuesParams(this.dv, (int) this.body.count(Objects::nonNull)) + this.getDownstreamSizeForVoxel();
+    return SelfAttention.countValuesParams(this.dv, this.nVoxels) + this.getDownstreamSizeForVoxel();
   }
 
   public int getDownstreamSizeForVoxel() {
     int sumDownstream = 0;
-    int nVoxels = (int) this.body.count(Objects::nonNull);
     for (Grid.Entry<? extends SensingVoxel> entry : this.body) {
       if (entry.getValue() == null) {
         continue;
       }
-      int inputs = (this.isTanh) ? nVoxels * this.din : this.din * this.dv;
+      int inputs = (this.isTanh) ? this.nVoxels * this.din : this.din * this.dv;
       sumDownstream += MultiLayerPerceptron.countWeights(MultiLayerPerceptron.countNeurons(inputs, new int[]{}, this.neighborConfig.contains("none") ? 1 : 2));
       break;
     }
@@ -106,10 +134,10 @@ public class SelfAttentionPartiallyDistributedMapper extends AbstractPartiallyDi
     int sumAttention = this.getAttentionSizeForVoxel();
     int sumDownstream = this.getDownstreamSizeForVoxel();
     if (this.distribution.startsWith("hetero|")) {
-      sumAttention = sumAttention * (int) body.count(Objects::nonNull);
+      sumAttention = sumAttention * this.nVoxels;
     }
     if (this.distribution.endsWith("|hetero")) {
-      sumDownstream = sumDownstream * (int) body.count(Objects::nonNull);
+      sumDownstream = sumDownstream * this.nVoxels;
     }
     return sumAttention + sumDownstream;
   }
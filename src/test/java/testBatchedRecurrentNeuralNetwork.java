@@ -0,0 +1,87 @@
+import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import org.junit.Test;
+import world.units.erallab.Activations;
+import world.units.erallab.BatchedRecurrentNeuralNetwork;
+import world.units.erallab.RecurrentNeuralNetwork;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+
+public class testBatchedRecurrentNeuralNetwork {
+
+    private static final int nOfInputs = 5;
+    private static final int nOfHiddenUnits = 6;
+    private static final int nOfOutputs = 2;
+    private static final int nOfRows = 7;
+
+    private static double[] getTestParams(Random random) {
+        double[] params = new double[BatchedRecurrentNeuralNetwork.countWeights(nOfInputs, nOfHiddenUnits, nOfOutputs)];
+        for (int i = 0; i < params.length; ++i) {
+            params[i] = random.nextGaussian();
+        }
+        return params;
+    }
+
+    @Test
+    public void testParams() {
+        double[] params = getTestParams(new Random(0));
+        BatchedRecurrentNeuralNetwork batched = new BatchedRecurrentNeuralNetwork(nOfRows, nOfInputs, nOfHiddenUnits, nOfOutputs);
+        batched.setParams(params);
+        assertArrayEquals(params, batched.getParams(), 0.0);
+    }
+
+    @Test
+    public void testRowsMatchStatefulNetworks() {
+        assertRowsMatchStatefulNetworks();
+    }
+
+    // the hidden updates of both follow the mode of Activations, the output gates use the exact tanh
+    @Test
+    public void testRowsMatchStatefulNetworksApproximate() {
+        Activations.setMode(Activations.Mode.TABLE);
+        try {
+            assertRowsMatchStatefulNetworks();
+        } finally {
+            Activations.setMode(Activations.Mode.EXACT);
+        }
+    }
+
+    private static void assertRowsMatchStatefulNetworks() {
+        Random random = new Random(0);
+        double[] params = getTestParams(random);
+        BatchedRecurrentNeuralNetwork batched = new BatchedRecurrentNeuralNetwork(nOfRows, nOfInputs, nOfHiddenUnits, nOfOutputs);
+        batched.setParams(params);
+        RecurrentNeuralNetwork[] networks = new RecurrentNeuralNetwork[nOfRows];
+        for (int v = 0; v < nOfRows; ++v) {
+            networks[v] = new RecurrentNeuralNetwork(MultiLayerPerceptron.ActivationFunction.TANH, MultiLayerPerceptron.ActivationFunction.TANH, nOfInputs, nOfHiddenUnits, nOfOutputs, 1, true);
+            networks[v].setParams(params);
+        }
+        double[] outputs = new double[nOfRows * nOfOutputs];
+        // steps less than 0.33 after the last evaluated one return the last outputs in both; the reset halfway restarts all the rows
+        for (int step = 1; step <= 60; ++step) {
+            double t = step * 0.25;
+            double[][] inputs = new double[nOfRows][nOfInputs];
+            for (double[] row : inputs) {
+                for (int i = 0; i < nOfInputs; ++i) {
+                    row[i] = random.nextDouble() * 2d - 1d;
+                }
+            }
+            batched.apply(t, inputs, outputs);
+            for (int v = 0; v < nOfRows; ++v) {
+                double[] expected = networks[v].apply(t, inputs[v]);
+                for (int o = 0; o < nOfOutputs; ++o) {
+                    assertEquals(expected[o], outputs[v * nOfOutputs + o], 0.0);
+                }
+            }
+            if (step == 30) {
+                batched.reset();
+                for (RecurrentNeuralNetwork network : networks) {
+                    network.reset();
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.core.geometry.Poly;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+import org.junit.Test;
+import world.units.erallab.EarlyStopPolicy;
+import world.units.erallab.EarlyStoppedOutcome;
+
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+
+public class testEarlyStopPolicy {
+
+    private static final double SAMPLING_INTERVAL = 0.05;
+
+    // a one-voxel robot moving at constant velocity, sampled as the outcomes of stopped episodes
+    private static Outcome getOutcome(double velocity, double duration) {
+        Map<Double, Outcome.Observation> observations = new HashMap<>();
+        for (int k = 0; k * SAMPLING_INTERVAL <= duration + 1e-9; ++k) {
+            double x = velocity * k * SAMPLING_INTERVAL;
+            Poly poly = Poly.of(Point2.build(x, 0), Point2.build(x + 1, 0), Point2.build(x + 1, 1), Point2.build(x, 1));
+            observations.put(k * SAMPLING_INTERVAL, new Outcome.Observation(Grid.create(1, 1, poly), 0, 0));
+        }
+        return new Outcome(observations);
+    }
+
+    // reason for stopping an episode at constant velocity, with the time of the stop, or "none"
+    private static String run(EarlyStopPolicy policy, double velocity, double duration) {
+        NavigableMap<Double, Point2> trajectory = new TreeMap<>();
+        for (int k = 0; k * SAMPLING_INTERVAL <= duration + 1e-9; ++k) {
+            double t = k * SAMPLING_INTERVAL;
+            trajectory.put(t, Point2.build(velocity * t, 0));
+            String reason = policy.check(trajectory);
+            if (reason != null) {
+                return reason + "@" + Math.round(t);
+            }
+        }
+        return "none";
+    }
+
+    @Test
+    public void testHalvingPromotesAllWithoutPopulation() {
+        EarlyStopPolicy policy = EarlyStopPolicy.halving(0.33, SAMPLING_INTERVAL, List::of, 5, 15);
+        assertEquals("none", run(policy, 0.1, 20));
+    }
+
+    @Test
+    public void testHalvingThresholdsOfMixedPopulation() {
+        // three full episodes and six stopped at the first rung, whose last observation is one sampling interval before it
+        List<Outcome> population = new ArrayList<>();
+        for (double velocity : new double[]{3, 4, 5}) {
+            population.add(getOutcome(velocity, 20));
+        }
+        for (double velocity : new double[]{0.5, 1, 1.2, 1.5, 2, 2.5}) {
+            population.add(getOutcome(velocity, 5 - SAMPLING_INTERVAL));
+        }
+        EarlyStopPolicy policy = EarlyStopPolicy.halving(0.33, SAMPLING_INTERVAL, () -> population, 5, 15);
+        // first rung: the top third of all the nine outcomes, i.e., velocity 3
+        assertEquals("halving@5", run(policy, 2.9, 20));
+        // second rung: the top third of the three outcomes reaching it, i.e., velocity 5
+        assertEquals("halving@15", run(policy, 3.1, 20));
+        assertEquals("halving@15", run(policy, 4.9, 20));
+        assertEquals("none", run(policy, 5.1, 20));
+    }
+
+    @Test
+    public void testRungs() {
+        assertArrayEquals(new double[]{5, 15}, EarlyStopPolicy.rungs("stagnation-5-0.5+halving-0.33-5-15"), 0.0);
+        assertEquals(0, EarlyStopPolicy.rungs("stagnation-5-0.5+blowup-100").length);
+        assertEquals(0, EarlyStopPolicy.rungs("none").length);
+    }
+
+    @Test
+    public void testPromotionsOnlyAtHalvingRungs() {
+        assertEquals(2, EarlyStopPolicy.promotions(getOutcome(1, 20), 5, 15));
+        // stopped by halving at the first and second rung, respectively
+        assertEquals(0, EarlyStopPolicy.promotions(new EarlyStoppedOutcome(getOutcome(1, 5 - SAMPLING_INTERVAL).getObservations(), "halving"), 5, 15));
+        assertEquals(1, EarlyStopPolicy.promotions(new EarlyStoppedOutcome(getOutcome(1, 15 - SAMPLING_INTERVAL).getObservations(), "halving"), 5, 15));
+        // truncated by another policy, hence ranked with the full episodes
+        assertEquals(2, EarlyStopPolicy.promotions(new EarlyStoppedOutcome(getOutcome(0, 3).getObservations(), "stagnation"), 5, 15));
+        assertEquals(0, EarlyStopPolicy.promotions(new EarlyStoppedOutcome(getOutcome(0, 3).getObservations(), "stagnation")));
+    }
+
+}
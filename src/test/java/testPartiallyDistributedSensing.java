@@ -1,4 +1,6 @@
+import it.units.erallab.hmsrobots.core.controllers.AbstractController;
 import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
+import it.units.erallab.hmsrobots.core.controllers.StepController;
 import it.units.erallab.hmsrobots.core.objects.Robot;
 import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
 import it.units.erallab.hmsrobots.tasks.locomotion.Locomotion;
@@ -9,10 +11,17 @@ import org.apache.commons.math3.util.Pair;
 import org.dyn4j.dynamics.Settings;
 import org.junit.Test;
 import world.units.erallab.PartiallyDistributedSensing;
+import world.units.erallab.RobotPool;
+import world.units.erallab.mappers.AbstractPartiallyDistributedMapper;
+import world.units.erallab.mappers.GenotypeSized;
+import world.units.erallab.mappers.MLPPartiallyDistributedMapper;
+import world.units.erallab.mappers.SelfAttentionPartiallyDistributedMapper;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.BiFunction;
 import java.util.function.Function;
 import java.util.stream.Collectors;
@@ -70,6 +79,105 @@ public class testPartiallyDistributedSensing {
         assertArrayEquals(new int[] {12, 12, 12, 12}, IntStream.range(0, robots.size()).map(i -> (int) ((PartiallyDistributedSensing) robots.get(i).getController()).getLastSignalsGrid().count(e -> e.length == target[i])).toArray());
     }
 
+    // outputs of the controller of a mapped robot at every step of a short episode
+    @SuppressWarnings("unchecked")
+    private static List<double[]> getOutputs(Robot<?> robot) {
+        PartiallyDistributedSensing controller = (PartiallyDistributedSensing) ((StepController<?>) robot.getController()).getInnerController();
+        List<double[]> outputs = new ArrayList<>();
+        Robot<SensingVoxel> recording = new Robot<>(new AbstractController<>() {
+            @Override
+            public Grid<Double> computeControlSignals(double t, Grid<? extends SensingVoxel> voxels) {
+                Grid<Double> signals = controller.computeControlSignals(t, voxels);
+                outputs.add(controller.getOutputs().clone());
+                return signals;
+            }
+
+            @Override
+            public void reset() {
+                controller.reset();
+            }
+        }, (Grid<? extends SensingVoxel>) robot.getVoxels());
+        new Locomotion(5.0, Locomotion.createTerrain("flat"), new Settings()).apply(recording);
+        return outputs;
+    }
+
+    @Test
+    public void testParallelHomo() {
+        Grid<? extends SensingVoxel> body = RobotUtils.buildSensorizingFunction("uniform-a+vxy+t-0.01").apply(RobotUtils.buildShape("biped-4x3"));
+        for (AbstractPartiallyDistributedMapper<?> mapper : List.of(new MLPPartiallyDistributedMapper(body, "all-homo"), new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-homo|homo-tanh"))) {
+            Random random = new Random(0);
+            List<Double> genotype = IntStream.range(0, mapper.getGenotypeSize()).mapToObj(i -> random.nextDouble() * 2d - 1d).collect(Collectors.toList());
+            List<double[]> sequential = getOutputs(mapper.apply(genotype));
+            ForkJoinPool pool = new ForkJoinPool(4);
+            List<double[]> parallel;
+            try {
+                // only the robots built afterwards by this mapper evaluate their voxels in parallel
+                mapper.setParallelEvaluation(pool, 1);
+                parallel = getOutputs(mapper.apply(genotype));
+            } finally {
+                pool.shutdown();
+            }
+            assertEquals(sequential.size(), parallel.size());
+            for (int i = 0; i < sequential.size(); ++i) {
+                assertArrayEquals(sequential.get(i), parallel.get(i), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testPooledReload() {
+        Grid<? extends SensingVoxel> body = RobotUtils.buildSensorizingFunction("uniform-a+vxy+t-0.01").apply(RobotUtils.buildShape("biped-4x3"));
+        List<Function<List<Double>, Robot<?>>> mappers = List.of(
+                new MLPPartiallyDistributedMapper(body, "all-homo"),
+                new MLPPartiallyDistributedMapper(body, "all-hetero"),
+                new MLPPartiallyDistributedMapper(body, "all-homo-float32"),
+                new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-homo|homo-tanh"),
+                new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-hetero|hetero-tanh-3"),
+                new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-homo|hetero-tanh-drift0.5-compiled"),
+                new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-homo|homo-tanh-1-batched"),
+                new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-homo|homo-tanh-1-float32"));
+        for (Function<List<Double>, Robot<?>> mapper : mappers) {
+            Random random = new Random(0);
+            int size = ((GenotypeSized) mapper).getGenotypeSize();
+            List<Double> first = IntStream.range(0, size).mapToObj(i -> random.nextDouble() * 2d - 1d).collect(Collectors.toList());
+            List<Double> second = IntStream.range(0, size).mapToObj(i -> random.nextDouble() * 2d - 1d).collect(Collectors.toList());
+            // the pooled robot has run an episode with another genotype before being reloaded
+            RobotPool pool = new RobotPool(mapper, body);
+            Robot<?> robot = pool.borrow(first);
+            getOutputs(robot);
+            pool.release(robot);
+            Robot<?> reloaded = pool.borrow(second);
+            assertSame(robot, reloaded);
+            List<double[]> expected = getOutputs(mapper.apply(second));
+            List<double[]> actual = getOutputs(reloaded);
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); ++i) {
+                assertArrayEquals(expected.get(i), actual.get(i), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void testAttentionHitRate() {
+        Grid<? extends SensingVoxel> body = RobotUtils.buildSensorizingFunction("uniform-a+vxy+t-0.01").apply(RobotUtils.buildShape("biped-4x3"));
+        List<Function<List<Double>, Robot<?>>> mappers = List.of(
+                new MLPPartiallyDistributedMapper(body, "all-homo"),
+                new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-homo|homo-tanh-3"),
+                new SelfAttentionPartiallyDistributedMapper(body, "all-14-2-2-homo|homo-tanh-3-float32"));
+        double[] hitRates = new double[mappers.size()];
+        for (int i = 0; i < mappers.size(); ++i) {
+            Random random = new Random(0);
+            List<Double> genotype = IntStream.range(0, ((GenotypeSized) mappers.get(i)).getGenotypeSize()).mapToObj(j -> random.nextDouble() * 2d - 1d).collect(Collectors.toList());
+            Robot<?> robot = mappers.get(i).apply(genotype);
+            getOutputs(robot);
+            hitRates[i] = ((PartiallyDistributedSensing) ((StepController<?>) robot.getController()).getInnerController()).getAttentionHitRate();
+        }
+        // no attention, then attentions refreshed every three steps, whatever their precision
+        assertEquals(-1.0, hitRates[0], 0.0);
+        assertEquals(2.0 / 3.0, hitRates[1], 0.01);
+        assertEquals(hitRates[1], hitRates[2], 0.0);
+    }
+
     @Test(expected=Test.None.class)
     public void testExecution() {
         Function<Robot<?>, Outcome> trainingTask = new Locomotion(60.0, Locomotion.createTerrain("flat"), new Settings());
@@ -0,0 +1,83 @@
+import it.units.erallab.hmsrobots.core.geometry.Point2;
+import it.units.erallab.hmsrobots.core.geometry.Poly;
+import it.units.erallab.hmsrobots.core.objects.Robot;
+import it.units.erallab.hmsrobots.core.objects.SensingVoxel;
+import it.units.erallab.hmsrobots.tasks.locomotion.Outcome;
+import it.units.erallab.hmsrobots.util.Grid;
+import it.units.erallab.hmsrobots.util.RobotUtils;
+import org.junit.Test;
+import world.units.erallab.LazyRobot;
+import world.units.erallab.RacedOutcome;
+import world.units.erallab.RacingEvaluator;
+import world.units.erallab.RobotPool;
+import world.units.erallab.mappers.MLPPartiallyDistributedMapper;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+
+public class testRacingEvaluator {
+
+    // one task per velocity, each giving a one-voxel outcome at that velocity whatever the robot
+    private static List<Function<Robot<?>, Outcome>> getTasks(double... velocities) {
+        return Arrays.stream(velocities).mapToObj(v -> (Function<Robot<?>, Outcome>) r -> {
+            Map<Double, Outcome.Observation> observations = new HashMap<>();
+            for (int t = 0; t <= 10; ++t) {
+                double x = v * t;
+                Poly poly = Poly.of(Point2.build(x, 0), Point2.build(x + 1, 0), Point2.build(x + 1, 1), Point2.build(x, 1));
+                observations.put((double) t, new Outcome.Observation(Grid.create(1, 1, poly), 0, 0));
+            }
+            return new Outcome(observations);
+        }).collect(Collectors.toList());
+    }
+
+    private static RacedOutcome race(List<Function<Robot<?>, Outcome>> tasks, int roundSize, double reference) {
+        Grid<? extends SensingVoxel> body = RobotUtils.buildSensorizingFunction("uniform-a+vxy+t-0.01").apply(RobotUtils.buildShape("biped-4x3"));
+        MLPPartiallyDistributedMapper mapper = new MLPPartiallyDistributedMapper(body, "none-homo");
+        LazyRobot robot = new LazyRobot(Collections.nCopies(mapper.getGenotypeSize(), 0.0), new RobotPool(mapper, body));
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            return (RacedOutcome) new RacingEvaluator(tasks, roundSize, 1.96, () -> reference, executor).apply(robot);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNotDroppedBeforeTwoOutcomes() {
+        // no confidence bound on a single velocity, hence the robot goes on, however low it is, up to the second round
+        RacedOutcome outcome = race(getTasks(0.1, 0.1, 0.1), 1, 100.0);
+        assertTrue(outcome.isDropped());
+        assertEquals(2, outcome.getOutcomes().size());
+    }
+
+    @Test
+    public void testDroppedBelowReference() {
+        RacedOutcome outcome = race(getTasks(1.0, 1.1, 0.9, 1.0, 1.0, 1.0), 2, 5.0);
+        assertTrue(outcome.isDropped());
+        assertEquals(2, outcome.getOutcomes().size());
+        assertEquals(1.05, outcome.getVelocity(), 1e-9);
+    }
+
+    @Test
+    public void testFullRace() {
+        RacedOutcome outcome = race(getTasks(1.0, 2.0, 3.0, 4.0, 5.0), 2, 0.5);
+        assertFalse(outcome.isDropped());
+        assertEquals(5, outcome.getOutcomes().size());
+        assertEquals(3.0, outcome.getVelocity(), 1e-9);
+    }
+
+    @Test
+    public void testNotDroppedAtTheLastRound() {
+        // the last round completes the race, hence the robot is not dropped however low it is
+        RacedOutcome outcome = race(getTasks(0.1, 0.2, 0.1, 0.2), 4, 100.0);
+        assertFalse(outcome.isDropped());
+        assertEquals(4, outcome.getOutcomes().size());
+    }
+
+}
@@ -1,8 +1,16 @@
 import it.units.erallab.hmsrobots.core.controllers.MultiLayerPerceptron;
 import org.ejml.simple.SimpleMatrix;
 import org.junit.Test;
+import world.units.erallab.Activations;
+import world.units.erallab.FloatSelfAttention;
+import world.units.erallab.Int8SelfAttention;
+import world.units.erallab.PartiallyDistributedSensing;
 import world.units.erallab.SelfAttention;
+import world.units.erallab.algebra.LinearAlgebra;
+import world.units.erallab.algebra.LinearAlgebras;
 
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 import static org.junit.Assert.*;
@@ -84,6 +92,20 @@ public class testSelfAttention {
     assertArrayEquals(matrixToBiArray(a.mult(b)), SelfAttention.matrixMult(matrixToBiArray(a), matrixToBiArray(b)));
   }
 
+  @Test
+  public void testLinearAlgebraBackends() {
+    SimpleMatrix a = getRandomMatrix(10, 4);
+    SimpleMatrix b = getRandomMatrix(4, 10);
+    double[] expected = SelfAttention.flat(matrixToBiArray(a.mult(b)));
+    for (LinearAlgebra algebra : List.of(LinearAlgebras.NAIVE, LinearAlgebras.BLOCKED, LinearAlgebras.EJML)) {
+      double[] c = new double[100];
+      algebra.mult(matrixToArray(a), matrixToArray(b), c, 10, 4, 10);
+      assertArrayEquals(expected, c, 1e-12);
+      algebra.multTransB(matrixToArray(a), matrixToArray(b.transpose()), c, 10, 4, 10);
+      assertArrayEquals(expected, c, 1e-12);
+    }
+  }
+
   @Test
   public void testLinearTransform() {
     SimpleMatrix a = getRandomMatrix(10, 4);
@@ -126,4 +148,210 @@ public class testSelfAttention {
     assertEquals(36, test.getAttentionParams().length);
   }
 
+  private static SelfAttention getRandomInstance(int n, int din, int dk) {
+    SelfAttention attention = new SelfAttention(new MultiLayerPerceptron(MultiLayerPerceptron.ActivationFunction.TANH, n * din, new int[]{}, 2), n, din, dk, din);
+    Random random = new Random(0);
+    double[] params = new double[attention.getParams().length];
+    for (int i = 0; i < params.length; ++i) {
+      params[i] = random.nextDouble() * 2.0 - 1.0;
+    }
+    attention.setParams(params);
+    return attention;
+  }
+
+  @Test
+  public void testInPlaceExecution() {
+    int n = 4;
+    int din = 3;
+    SelfAttention inPlace = getRandomInstance(n, din, 2);
+    SelfAttention allocating = getRandomInstance(n, din, 2);
+    allocating.setInPlace(false);
+    double[] v = getRandomVector(din);
+    for (int i = 0; i < n; ++i) {
+      double[] inputs = PartiallyDistributedSensing.positionalEncoding(v, n, i);
+      assertArrayEquals(allocating.apply(inputs), inPlace.apply(inputs), 0.0);
+      assertArrayEquals(allocating.getAttention(), inPlace.getAttention());
+    }
+  }
+
+  @Test
+  public void testInPlaceExecutionLargeShape() {
+    // din * din * n above the size at which the selection by dimension leaves the naive kernel
+    int n = 64;
+    int din = 8;
+    SelfAttention inPlace = getRandomInstance(n, din, 2);
+    SelfAttention allocating = getRandomInstance(n, din, 2);
+    allocating.setInPlace(false);
+    double[] v = getRandomVector(din);
+    for (int i = 0; i < n; i += 7) {
+      double[] inputs = PartiallyDistributedSensing.positionalEncoding(v, n, i);
+      assertArrayEquals(allocating.apply(inputs), inPlace.apply(inputs), 0.0);
+    }
+    // a forced backend may change the summation order only
+    try {
+      LinearAlgebras.force("blocked");
+      for (int i = 0; i < n; i += 7) {
+        double[] inputs = PartiallyDistributedSensing.positionalEncoding(v, n, i);
+        assertArrayEquals(allocating.apply(inputs), inPlace.apply(inputs), 1e-12);
+      }
+    } finally {
+      LinearAlgebras.force("auto");
+    }
+  }
+
+  @Test
+  public void testSparseExecution() {
+    int n = 4;
+    int din = 3;
+    SelfAttention dense = getRandomInstance(n, din, 2);
+    SelfAttention sparse = getRandomInstance(n, din, 2);
+    double[] v = getRandomVector(din);
+    for (int i = 0; i < n; ++i) {
+      assertArrayEquals(dense.apply(PartiallyDistributedSensing.positionalEncoding(v, n, i)), sparse.apply(i, v), 0.0);
+      assertArrayEquals(dense.applyAttention(PartiallyDistributedSensing.positionalEncoding(v, n, i)), sparse.applyAttention(i, v));
+    }
+  }
+
+  @Test
+  public void testCompiledExecution() {
+    int n = 4;
+    int din = 3;
+    SelfAttention general = getRandomInstance(n, din, 2);
+    SelfAttention compiled = getRandomInstance(n, din, 2);
+    compiled.setCompiled(true);
+    double[] v = getRandomVector(din);
+    for (int i = 0; i < n; ++i) {
+      assertArrayEquals(general.apply(i, v), compiled.apply(i, v), 1e-12);
+      for (int j = 0; j < din; ++j) {
+        assertArrayEquals(general.getAttention()[j], compiled.getAttention()[j], 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testSharedWeights() {
+    int n = 4;
+    int din = 3;
+    SelfAttention prototype = getRandomInstance(n, din, 2);
+    SelfAttention shared = prototype.shareWeights();
+    SelfAttention copy = getRandomInstance(n, din, 2);
+    assertArrayEquals(copy.getParams(), shared.getParams(), 0.0);
+    double[] v = getRandomVector(din);
+    double[] w = getRandomVector(din);
+    for (int i = 0; i < n; ++i) {
+      double[] expected = copy.apply(i, w);
+      prototype.apply(i, v);
+      assertArrayEquals(expected, shared.apply(i, w), 0.0);
+    }
+  }
+
+  @Test
+  public void testBatchedExecution() {
+    int n = 4;
+    int din = 3;
+    SelfAttention prototype = getRandomInstance(n, din, 2);
+    SelfAttention[] functions = new SelfAttention[n];
+    SelfAttention[] batch = new SelfAttention[n];
+    int[] slots = new int[n];
+    double[][] readings = new double[n][];
+    for (int i = 0; i < n; ++i) {
+      functions[i] = prototype.shareWeights();
+      batch[i] = prototype.shareWeights();
+      slots[i] = i;
+      readings[i] = getRandomVector(din);
+      readings[i][i % din] = -readings[i][i % din];
+    }
+    double[] outputs = new double[n * 2];
+    // batched and per-voxel outputs match also with approximate activations
+    Activations.setMode(Activations.Mode.RATIONAL);
+    try {
+      SelfAttention.applyBatch(batch, slots, readings, outputs);
+      for (int i = 0; i < n; ++i) {
+        assertArrayEquals(functions[i].apply(i, readings[i]), Arrays.copyOfRange(outputs, i * 2, (i + 1) * 2), 0.0);
+      }
+    } finally {
+      Activations.setMode(Activations.Mode.EXACT);
+    }
+  }
+
+  @Test
+  public void testRefreshInterval() {
+    int n = 4;
+    int din = 3;
+    SelfAttention attention = getRandomInstance(n, din, 2);
+    attention.setSteps(3);
+    attention.apply(0, new double[]{0.1, 0.2, 0.3});
+    double[] refreshed = attention.getAttention()[0].clone();
+    attention.apply(0, new double[]{0.4, 0.5, 0.6});
+    attention.apply(0, new double[]{0.7, 0.8, 0.9});
+    assertArrayEquals(refreshed, attention.getAttention()[0], 0.0);
+    attention.apply(0, new double[]{0.4, 0.5, 0.6});
+    assertNotEquals(refreshed[1], attention.getAttention()[0][1], 0.0);
+    assertEquals(2, attention.getHits());
+    assertEquals(2, attention.getMisses());
+  }
+
+  @Test
+  public void testFloat32() {
+    int n = 4;
+    int din = 3;
+    SelfAttention attention = getRandomInstance(n, din, 2);
+    FloatSelfAttention narrowed = new FloatSelfAttention(attention);
+    assertArrayEquals(attention.getParams(), narrowed.getParams(), 1e-6);
+    for (int i = 0; i < n; ++i) {
+      double[] v = getRandomVector(din);
+      assertArrayEquals(attention.apply(i, v), narrowed.apply(i, v), 1e-5);
+    }
+  }
+
+  @Test
+  public void testFloat32Refresh() {
+    int n = 4;
+    int din = 3;
+    for (int steps : new int[]{3, 1}) {
+      SelfAttention attention = getRandomInstance(n, din, 2);
+      attention.setSteps(steps);
+      attention.setDriftThreshold((steps == 1) ? 0.5 : 0.0);
+      FloatSelfAttention narrowed = new FloatSelfAttention(attention);
+      Random random = new Random(1);
+      for (int k = 0; k < 12; ++k) {
+        double[] v = new double[]{random.nextDouble(), random.nextDouble(), random.nextDouble()};
+        assertArrayEquals(attention.apply(k % n, v), narrowed.apply(k % n, v), 1e-5);
+      }
+      assertEquals(attention.getHits(), narrowed.getHits());
+      assertEquals(attention.getMisses(), narrowed.getMisses());
+    }
+  }
+
+  @Test
+  public void testInt8() {
+    int n = 4;
+    int din = 3;
+    SelfAttention attention = getRandomInstance(n, din, 2);
+    Int8SelfAttention quantized = new Int8SelfAttention(attention);
+    for (int i = 0; i < n; ++i) {
+      double[] v = getRandomVector(din);
+      assertArrayEquals(attention.apply(i, v), quantized.apply(i, v), 0.05);
+    }
+  }
+
+  @Test
+  public void testInt8Refresh() {
+    int n = 4;
+    int din = 3;
+    for (int steps : new int[]{3, 1}) {
+      SelfAttention attention = getRandomInstance(n, din, 2);
+      attention.setSteps(steps);
+      attention.setDriftThreshold((steps == 1) ? 0.5 : 0.0);
+      Int8SelfAttention quantized = new Int8SelfAttention(attention);
+      Random random = new Random(1);
+      for (int k = 0; k < 12; ++k) {
+        double[] v = new double[]{random.nextDouble(), random.nextDouble(), random.nextDouble()};
+        assertArrayEquals(attention.apply(k % n, v), quantized.apply(k % n, v), 0.05);
+      }
+      assertEquals(attention.getHits(), quantized.getHits());
+      assertEquals(attention.getMisses(), quantized.getMisses());
+    }
+  }
+
 }